@@ -0,0 +1,102 @@
+/*
+ * Copyright 2014 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mitre.jet.common;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An InputStream that reads the remaining bytes of a buffer, e.g. a direct or memory-mapped buffer, without
+ * first copying them into an array.
+ *
+ * @author ADAY
+ */
+public class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer buffer;
+    private int mark = -1;
+
+    /**
+     * @param buffer the buffer to read. Its position and limit are not changed.
+     */
+    public ByteBufferInputStream(@NotNull final ByteBuffer buffer) {
+
+        this.buffer = buffer.duplicate();
+    }
+
+    @Override
+    public int read() {
+
+        return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(@NotNull final byte[] bytes, final int offset, final int length) {
+
+        if (offset < 0 || length < 0 || length > bytes.length - offset) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (length == 0) {
+            return 0;
+        }
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+
+        final int count = Math.min(length, buffer.remaining());
+        buffer.get(bytes, offset, count);
+        return count;
+    }
+
+    @Override
+    public long skip(final long n) {
+
+        final int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+        buffer.position(buffer.position() + count);
+        return count;
+    }
+
+    @Override
+    public int available() {
+
+        return buffer.remaining();
+    }
+
+    @Override
+    public boolean markSupported() {
+
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(final int readLimit) {
+
+        mark = buffer.position();
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+
+        if (mark < 0) {
+            throw new IOException("Stream has not been marked");
+        }
+        buffer.position(mark);
+    }
+}
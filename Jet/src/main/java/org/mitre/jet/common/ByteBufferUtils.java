@@ -18,7 +18,10 @@ package org.mitre.jet.common;
 
 import org.jetbrains.annotations.NotNull;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 /**
  * The Class ByteBufferUtils.
@@ -27,6 +30,14 @@ import java.nio.ByteBuffer;
  */
 public class ByteBufferUtils {
 
+    /** Size of the chunks in which buffers without an accessible array are written to a stream. */
+    private static final int WRITE_CHUNK = 8192;
+
+    /** Every byte 0x1C, the FS separator. FS, GS, RS and US (0x1C-0x1F) differ only in their two low bits. */
+    private static final long SEPARATORS = 0x1C1C1C1C1C1C1C1CL;
+    private static final long SEPARATOR_MASK = 0xFCFCFCFCFCFCFCFCL;
+    private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+
     /**
      * Instantiates a new byte buffer utils.
      */
@@ -96,5 +107,76 @@ public class ByteBufferUtils {
         }
 
         return -1;
-    }      
+    }
+
+    /**
+     * Returns the index of the first Ebts separator (FS, GS, RS or US) between two indexes of the byte buffer,
+     * without moving its position. The bytes are examined eight at a time.
+     * @param bb ByteBuffer
+     * @param from The index to start searching from (inclusive).
+     * @param to The index to stop searching at (exclusive).
+     * @return index (-1 if not found)
+     */
+    public static int findSeparator(@NotNull final ByteBuffer bb, final int from, final int to) {
+
+        final boolean bigEndian = bb.order() == ByteOrder.BIG_ENDIAN;
+        int index = from;
+        for (; index + 8 <= to; index += 8) {
+            final long separators = separatorBits(bb, index, bigEndian);
+            if (separators != 0) {
+                return index + (Long.numberOfTrailingZeros(separators) >>> 3);
+            }
+        }
+
+        for (; index < to; index++) {
+            if ((bb.get(index) & 0xFC) == 0x1C) {
+                return index;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Examines the eight bytes at an index of the byte buffer for Ebts separators (FS, GS, RS or US).
+     * @param bb ByteBuffer
+     * @param index The index of the first byte. At least eight bytes must follow it.
+     * @param bigEndian Whether the buffer's byte order is big-endian.
+     * @return a word with the high bit of byte {@literal n} set if the byte at {@literal index + n} is a separator.
+     * Bytes are numbered from the least significant, so the first separator is found with {@link Long#numberOfTrailingZeros(long)}.
+     */
+    public static long separatorBits(@NotNull final ByteBuffer bb, final int index, final boolean bigEndian) {
+
+        //Byte order is reversed if needed so that the first byte is the least significant
+        final long word = bigEndian ? Long.reverseBytes(bb.getLong(index)) : bb.getLong(index);
+
+        //Separator bytes become zero, then only the high bit of each zero byte is set
+        final long masked = (word ^ SEPARATORS) & SEPARATOR_MASK;
+        return ~(((masked & LOW_BITS) + LOW_BITS) | masked | LOW_BITS);
+    }
+
+    /**
+     * Writes the remaining bytes of a buffer to a stream without copying them into an array of their own. A heap
+     * buffer is written straight from its array; any other buffer (e.g. direct, memory-mapped or read-only) is
+     * written through a small reusable chunk.
+     *
+     * @param bb the buffer, whose position is not changed
+     * @param out the stream
+     * @throws IOException if the stream cannot be written
+     */
+    public static void write(@NotNull final ByteBuffer bb, @NotNull final OutputStream out) throws IOException {
+
+        if (bb.hasArray()) {
+            out.write(bb.array(), bb.arrayOffset() + bb.position(), bb.remaining());
+            return;
+        }
+
+        final ByteBuffer source = bb.duplicate();
+        final byte[] chunk = new byte[Math.min(WRITE_CHUNK, source.remaining())];
+        while (source.hasRemaining()) {
+            final int count = Math.min(chunk.length, source.remaining());
+            source.get(chunk, 0, count);
+            out.write(chunk, 0, count);
+        }
+    }
 }
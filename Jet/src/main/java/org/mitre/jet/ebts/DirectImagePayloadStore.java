@@ -0,0 +1,40 @@
+/*
+ * Copyright 2014 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mitre.jet.ebts;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Keeps image data in direct buffers, outside the heap. The memory is released when the records holding the
+ * buffers are garbage collected.
+ *
+ * @author ADAY
+ */
+public final class DirectImagePayloadStore implements ImagePayloadStore {
+
+    @NotNull
+    @Override
+    public ByteBuffer store(@NotNull final ByteBuffer data) {
+
+        final ByteBuffer copy = ByteBuffer.allocateDirect(data.remaining());
+        copy.put(data.duplicate());
+        copy.flip();
+        return copy.asReadOnlyBuffer();
+    }
+}
@@ -17,7 +17,13 @@
 package org.mitre.jet.ebts;
 
 import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Multimaps;
+import com.google.common.collect.Table;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.mitre.jet.ebts.field.Field;
 import org.mitre.jet.ebts.field.Occurrence;
 import org.mitre.jet.ebts.field.SubField;
@@ -26,18 +32,67 @@ import org.mitre.jet.ebts.records.LogicalRecord;
 import java.util.*;
 
 /**
- * The Class Ebts.
+ * <p>
+ *     The Class Ebts.
+ * </p>
+ * <p>
+ *     The records in the order returned by {@link #getAllRecords()} and the index behind {@link #getRecord(int, int)}
+ *     and {@link #getMaxIdc()} are built when first needed and kept until the records change, whether through this
+ *     class or the lists returned by {@link #getRecordsByType(int)}. The Ebts listens for changes to the IDC of its
+ *     records (e.g. with {@link LogicalRecord#setIdc(int)}) and rebuilds the index after one. Changes made in place
+ *     to the subfields of a record's IDC field are not seen.
+ * </p>
+ * <p>
+ *     An Ebts that is shared between threads should be {@link #freeze() frozen} first.
+ * </p>
  *
  * @author ADAY
  */
 public class Ebts {
 
-    private final ListMultimap<Integer, LogicalRecord> records = ArrayListMultimap.create();
+    private final ListMultimap<Integer, LogicalRecord> records;
+    private final boolean frozen;
+
+    /** All records in record type order, or null if the records have changed since it was built. */
+    private List<LogicalRecord> allRecords;
+    /** The records with an IDC by record type and IDC, or null if it needs to be rebuilt. */
+    private Table<Integer, Integer, LogicalRecord> recordsByIdc;
+    /** The highest IDC of the records, kept with {@link #recordsByIdc}. */
+    private int maxIdc;
+
+    /** Drops the index when the IDC of a record changes. Records of a frozen Ebts cannot change, so it has none. */
+    private final LogicalRecord.IdcListener idcListener = new LogicalRecord.IdcListener() {
+        @Override
+        public void idcChanged(final LogicalRecord record) {
+
+            //The record is indexed at most once, so finding it under its current IDC means the IDC is unchanged
+            //since the index was built, e.g. when the IDC has been set again to the same value
+            final int idc = idc(record);
+            if (recordsByIdc != null && (idc == -1 || recordsByIdc.get(record.getRecordType(), idc) != record)) {
+                recordsByIdc = null;
+            }
+        }
+    };
 
     /**
      * Create an Ebts instance to store the records for a particular file.
      */
-    public Ebts() {}
+    public Ebts() {
+        this.records = ArrayListMultimap.create();
+        this.frozen = false;
+    }
+
+    /**
+     * Creates a frozen Ebts, building its ordered view and index up front so that it is never changed afterwards.
+     *
+     * @param records the frozen records
+     */
+    private Ebts(final ImmutableListMultimap<Integer, LogicalRecord> records) {
+        this.records = records;
+        this.frozen = true;
+        getOrderedRecords();
+        getRecordsByIdc();
+    }
 
     /**
      * Add a record to the Ebts instance.
@@ -45,7 +100,9 @@ public class Ebts {
      * @param record Record to add.
      */
     public void addRecord(final LogicalRecord record) {
+        checkNotFrozen();
         this.records.put(record.getRecordType(), record);
+        added(record);
     }
     /**
      * Remove a record from the Ebts instance.
@@ -53,7 +110,12 @@ public class Ebts {
      * @param record Record to remove.
      */
     public boolean removeRecord(final LogicalRecord record) {
-        return this.records.remove(record.getRecordType(), record);
+        checkNotFrozen();
+        if (!this.records.remove(record.getRecordType(), record)) {
+            return false;
+        }
+        removed(record);
+        return true;
     }
 
     /**
@@ -68,7 +130,7 @@ public class Ebts {
      */
     public final Map<Integer, Integer> getLogicalRecordCounts() {
         final Map<Integer, Integer> logicalRecordCounts = new HashMap<Integer, Integer>();
-        final Field cntField = this.getRecordsByType(1).get(0).getField(3);
+        final Field cntField = this.records.get(1).get(0).getField(3);
 
         if (cntField == null) {
             throw new IllegalStateException("Ebts does not have CNT field");
@@ -94,50 +156,310 @@ public class Ebts {
      * @param recordType record type to be removed.
      */
     public void removeRecordsByType(final int recordType) {
-        this.records.removeAll(recordType);
+        checkNotFrozen();
+        for (final LogicalRecord record : this.records.removeAll(recordType)) {
+            removed(record);
+        }
     }
     /**
      * Remove all data from the Ebts instance.
      */
     public void clear() {
+        checkNotFrozen();
+        for (final LogicalRecord record : this.records.values()) {
+            record.removeIdcListener(idcListener);
+        }
         this.records.clear();
+        allRecords = null;
+        recordsByIdc = null;
     }    
     /**
-     * Return a list of all records for a given type.
+     * Return a list of all records for a given type. The list is live, so records may be added or removed through it
+     * unless the Ebts is frozen.
      * @param recordType Record type to return.
      * @return List of logical records.
      */
 
     public List<LogicalRecord> getRecordsByType(final int recordType) {
-        return this.records.get(recordType);
+        if (frozen) {
+            return this.records.get(recordType);
+        }
+        return new RecordList(this.records.get(recordType));
     }
 
     /**
-     * Return all records in the Ebts instance.
+     * Return all records in the Ebts instance, ordered by record type. Changing the list does not change the Ebts.
      *
      * @return List of all logical records.
      */
     public List<LogicalRecord> getAllRecords() {
 
-        final List<LogicalRecord> recordList = new ArrayList<LogicalRecord>();
-        final List<Integer> keys = new ArrayList<Integer>();
-        keys.addAll(this.records.keySet());
-        Collections.sort(keys);
-        for (final Integer key : keys) {
-            recordList.addAll(getRecordsByType(key));
-        }
-        return recordList;
+        return new ArrayList<LogicalRecord>(getOrderedRecords());
+    }
+
+    /**
+     * Returns the records ordered by record type without copying them, for use within the package. The list is kept
+     * until the records change, so repeated calls do not rebuild it.
+     *
+     * @return Unmodifiable list of all logical records.
+     */
+    List<LogicalRecord> getOrderedRecords() {
 
+        if (allRecords == null) {
+            final List<Integer> keys = new ArrayList<Integer>(this.records.keySet());
+            Collections.sort(keys);
+            final List<LogicalRecord> recordList = new ArrayList<LogicalRecord>(this.records.size());
+            for (final Integer key : keys) {
+                recordList.addAll(this.records.get(key));
+            }
+            allRecords = Collections.unmodifiableList(recordList);
+        }
+        return allRecords;
     }
 
+    /**
+     * Returns the records by record type. Records are added and removed with {@link #addRecord(LogicalRecord)},
+     * {@link #removeRecord(LogicalRecord)} or through {@link #getRecordsByType(int)}.
+     *
+     * @return Unmodifiable view of the records.
+     */
     public ListMultimap<Integer, LogicalRecord> getRecords() {
-        return this.records;
+        return frozen ? this.records : Multimaps.unmodifiableListMultimap(this.records);
     }
 
     public boolean containsRecord(final int recordType) {
         return this.records.containsKey(recordType) && !this.records.get(recordType).isEmpty();
     }
-    //TODO: Add methods that relate to the idc
+
+    /**
+     * Returns the record with a record type and IDC. If several records share them, the first one added is returned.
+     *
+     * @param recordType the record type
+     * @param idc the IDC (field 2 of the record)
+     * @return the record, or null if there is none
+     */
+    @Nullable
+    public LogicalRecord getRecord(final int recordType, final int idc) {
+
+        return getRecordsByIdc().get(recordType, idc);
+    }
+
+    /**
+     * Returns the highest IDC of the records other than the Type-1, e.g. to number a new record.
+     *
+     * @return the highest IDC, or -1 if no record has one
+     */
+    public int getMaxIdc() {
+
+        getRecordsByIdc();
+        return maxIdc;
+    }
+
+    /**
+     * <p>
+     *     Returns a frozen copy of the Ebts, which cannot be changed and so can be shared by several threads without
+     *     copying it. Its records are {@link LogicalRecord#freeze() frozen} copies that share this Ebts' field and
+     *     image data, so the data must not be modified in place afterwards. Records, fields and subfields that are
+     *     already frozen are shared as they are.
+     * </p>
+     * <p>
+     *     Methods that change a frozen Ebts throw {@link UnsupportedOperationException}. Edits are made with
+     *     {@link #withRecord(LogicalRecord, LogicalRecord)} and {@link #withField(LogicalRecord, int, Field)}, which
+     *     return a new frozen Ebts sharing every record that was not changed:
+     * </p>
+     * <pre>
+     *     Ebts snapshot = EbtsParser.parse(file).freeze();
+     *     LogicalRecord type2 = snapshot.getRecordsByType(2).get(0);
+     *     Ebts edited = snapshot.withField(type2, 18, new Field("DOE,JOHN"));
+     * </pre>
+     *
+     * @return the frozen copy, or this Ebts if it is already frozen
+     */
+    @NotNull
+    public Ebts freeze() {
+
+        if (frozen) {
+            return this;
+        }
+        final ImmutableListMultimap.Builder<Integer, LogicalRecord> builder = ImmutableListMultimap.builder();
+        for (final Map.Entry<Integer, LogicalRecord> entry : this.records.entries()) {
+            builder.put(entry.getKey(), entry.getValue().freeze());
+        }
+        return new Ebts(builder.build());
+    }
+
+    /**
+     * Returns a mutable copy of the Ebts. The records are {@link LogicalRecord#thaw() mutable copies}, whose fields
+     * are shared with this Ebts.
+     *
+     * @return the copy
+     */
+    @NotNull
+    public Ebts thaw() {
+
+        final Ebts copy = new Ebts();
+        for (final Map.Entry<Integer, LogicalRecord> entry : this.records.entries()) {
+            copy.addRecord(entry.getValue().thaw());
+        }
+        return copy;
+    }
+
+    /**
+     * Returns a frozen copy of a frozen Ebts with one record replaced. Every other record is shared with this Ebts.
+     *
+     * @param existing the record to replace, which must belong to this Ebts
+     * @param replacement the new record, which is frozen if it is not already
+     * @return the frozen copy
+     * @throws IllegalStateException if this Ebts is not frozen
+     * @throws IllegalArgumentException if the record does not belong to this Ebts
+     */
+    @NotNull
+    public Ebts withRecord(@NotNull final LogicalRecord existing, @NotNull final LogicalRecord replacement) {
+
+        if (!frozen) {
+            throw new IllegalStateException("Only a frozen Ebts can be edited into a new snapshot");
+        }
+
+        boolean replaced = false;
+        final ImmutableListMultimap.Builder<Integer, LogicalRecord> builder = ImmutableListMultimap.builder();
+        for (final Map.Entry<Integer, LogicalRecord> entry : this.records.entries()) {
+            if (!replaced && entry.getValue() == existing) {
+                builder.put(replacement.getRecordType(), replacement.freeze());
+                replaced = true;
+            } else {
+                builder.put(entry);
+            }
+        }
+        if (!replaced) {
+            throw new IllegalArgumentException("Record does not belong to this Ebts");
+        }
+        return new Ebts(builder.build());
+    }
+
+    /**
+     * Returns a frozen copy of a frozen Ebts with one field of a record added or replaced. The record's other fields
+     * and every other record are shared with this Ebts.
+     *
+     * @param record the record to change, which must belong to this Ebts
+     * @param fieldNumber the field number
+     * @param field the field
+     * @return the frozen copy
+     * @throws IllegalStateException if this Ebts is not frozen
+     * @throws IllegalArgumentException if the record does not belong to this Ebts
+     */
+    @NotNull
+    public Ebts withField(@NotNull final LogicalRecord record, final int fieldNumber, @NotNull final Field field) {
+
+        return withRecord(record, record.withField(fieldNumber, field));
+    }
+
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    private void checkNotFrozen() {
+        if (frozen) {
+            throw new UnsupportedOperationException("Ebts is frozen");
+        }
+    }
+
+    private Table<Integer, Integer, LogicalRecord> getRecordsByIdc() {
+
+        if (recordsByIdc == null) {
+            recordsByIdc = HashBasedTable.create();
+            maxIdc = -1;
+            for (final LogicalRecord record : this.records.values()) {
+                index(record);
+            }
+        }
+        return recordsByIdc;
+    }
+
+    private void index(final LogicalRecord record) {
+
+        final int idc = idc(record);
+        if (idc != -1 && !recordsByIdc.contains(record.getRecordType(), idc)) {
+            recordsByIdc.put(record.getRecordType(), idc, record);
+        }
+        maxIdc = Math.max(maxIdc, idc);
+    }
+
+    /**
+     * @return the IDC of the record, or -1 if it has none or it is not a number
+     */
+    private static int idc(final LogicalRecord record) {
+
+        try {
+            return record.getIdc();
+        } catch (final NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Updates the ordered view and index for a record that has been added to {@link #records}.
+     */
+    private void added(final LogicalRecord record) {
+        record.addIdcListener(idcListener);
+        allRecords = null;
+        if (recordsByIdc != null) {
+            index(record);
+        }
+    }
+
+    /**
+     * Updates the ordered view and index for a record that has been removed from {@link #records}.
+     */
+    private void removed(final LogicalRecord record) {
+        record.removeIdcListener(idcListener);
+        allRecords = null;
+        recordsByIdc = null;
+    }
+
+    /**
+     * The live list of the records of a type, which keeps the ordered view and index up to date as it is changed.
+     */
+    private final class RecordList extends AbstractList<LogicalRecord> implements RandomAccess {
+
+        private final List<LogicalRecord> delegate;
+
+        private RecordList(final List<LogicalRecord> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public LogicalRecord get(final int index) {
+            return delegate.get(index);
+        }
+
+        @Override
+        public int size() {
+            return delegate.size();
+        }
+
+        @Override
+        public LogicalRecord set(final int index, final LogicalRecord record) {
+            final LogicalRecord previous = delegate.set(index, record);
+            removed(previous);
+            added(record);
+            return previous;
+        }
+
+        @Override
+        public void add(final int index, final LogicalRecord record) {
+            delegate.add(index, record);
+            modCount++;
+            added(record);
+        }
+
+        @Override
+        public LogicalRecord remove(final int index) {
+            final LogicalRecord previous = delegate.remove(index);
+            modCount++;
+            removed(previous);
+            return previous;
+        }
+    }
 
 
     @Override
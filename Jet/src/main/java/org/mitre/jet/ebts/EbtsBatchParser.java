@@ -0,0 +1,268 @@
+/*
+ * Copyright 2014 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mitre.jet.ebts;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.mitre.jet.exceptions.EbtsParsingException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * <p>
+ *     Parses many Ebts files concurrently, returning a {@link Result} for each file as it completes:
+ * </p>
+ * <pre>
+ *     EbtsBatchParser batch = EbtsBatchParser.parseAll(paths, ParseSpec.of(ParseType.DESCRIPTIVE_ONLY, Type7Handling.TREAT_AS_TYPE4), 8);
+ *     try {
+ *         while (batch.hasNext()) {
+ *             Result result = batch.next();
+ *             ...
+ *         }
+ *     } finally {
+ *         batch.close();
+ *     }
+ * </pre>
+ * <p>
+ *     Files are only started as earlier results are taken, and the combined size of the files that have been
+ *     started but whose results have not yet been taken is kept within a byte budget, so a few very large files
+ *     cannot exhaust the heap. A file larger than the budget is parsed on its own. A file that cannot be read
+ *     or parsed produces a failed result rather than ending the batch.
+ * </p>
+ * <p>
+ *     The batch owns its worker threads, which are released once every result has been taken or the batch
+ *     is closed. An instance is not thread-safe.
+ * </p>
+ */
+public final class EbtsBatchParser implements Iterator<EbtsBatchParser.Result>, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(EbtsBatchParser.class);
+
+    /** Default limit on the size of the files in flight: a quarter of the maximum heap. */
+    private static final long DEFAULT_MAX_BYTES_IN_FLIGHT = Runtime.getRuntime().maxMemory() / 4;
+
+    private final Iterator<Path> files;
+    private final ParseSpec parseSpec;
+    private final int parallelism;
+    private final long maxBytesInFlight;
+    private final ExecutorService executor;
+
+    /** Results of files that have been parsed, in completion order. */
+    private final BlockingQueue<Result> completed = new LinkedBlockingQueue<Result>();
+    /** Results of files that failed before they could be started, e.g. because their size could not be read. */
+    private final Queue<Result> failed = new ArrayDeque<Result>();
+
+    /** The next file to start, once the budget allows it. */
+    private Path nextFile;
+    private long nextFileSize;
+
+    private int inFlight;
+    private long bytesInFlight;
+
+    private EbtsBatchParser(final Iterable<Path> files, final ParseSpec parseSpec, final int parallelism, final long maxBytesInFlight) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        }
+        this.files = files.iterator();
+        this.parseSpec = parseSpec;
+        this.parallelism = parallelism;
+        this.maxBytesInFlight = maxBytesInFlight;
+        this.executor = Executors.newFixedThreadPool(parallelism,
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("ebts-batch-%d").build());
+    }
+
+    public static EbtsBatchParser parseAll(final Iterable<Path> files, final ParseSpec parseSpec, final int parallelism) {
+        return parseAll(files, parseSpec, parallelism, DEFAULT_MAX_BYTES_IN_FLIGHT);
+    }
+
+    /**
+     * Starts parsing a batch of files.
+     *
+     * @param files the files, which are read lazily as the batch progresses
+     * @param parseSpec the records and fields to parse in each file
+     * @param parallelism the number of files parsed at the same time
+     * @param maxBytesInFlight the combined size of the files that may be started but not yet taken
+     * @return the batch, whose results are returned in completion order
+     */
+    public static EbtsBatchParser parseAll(final Iterable<Path> files, final ParseSpec parseSpec, final int parallelism,
+                                           final long maxBytesInFlight) {
+        return new EbtsBatchParser(files, parseSpec, parallelism, maxBytesInFlight);
+    }
+
+    /**
+     * Returns whether another result remains, starting further files if the budget allows.
+     *
+     * @return true if {@link #next()} will return a result
+     */
+    @Override
+    public boolean hasNext() {
+
+        if (executor.isShutdown()) {
+            return false;
+        }
+        startFiles();
+        final boolean hasNext = !failed.isEmpty() || inFlight > 0;
+        if (!hasNext) {
+            close();
+        }
+        return hasNext;
+    }
+
+    /**
+     * Returns the next file to complete, waiting for it if necessary.
+     *
+     * @return the result
+     */
+    @Override
+    public Result next() {
+
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        if (!failed.isEmpty()) {
+            return failed.remove();
+        }
+
+        final Result result = Uninterruptibles.takeUninterruptibly(completed);
+        inFlight--;
+        bytesInFlight -= result.size;
+        return result;
+    }
+
+    /**
+     * Stops the worker threads. Files that have not completed are abandoned, and no further results are returned.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Starts files until the parallelism or the byte budget is reached.
+     */
+    private void startFiles() {
+
+        while (inFlight < parallelism) {
+            if (nextFile == null) {
+                if (!files.hasNext()) {
+                    return;
+                }
+                final Path file = files.next();
+                try {
+                    nextFileSize = Files.size(file);
+                    nextFile = file;
+                } catch (final IOException e) {
+                    failed.add(new Result(file, 0, null, new EbtsParsingException("Unable to read file: " + file, e)));
+                    continue;
+                }
+            }
+
+            //A file larger than the budget is still parsed once nothing else is in flight
+            if (inFlight > 0 && bytesInFlight + nextFileSize > maxBytesInFlight) {
+                return;
+            }
+
+            start(nextFile, nextFileSize);
+            nextFile = null;
+        }
+    }
+
+    private void start(final Path file, final long size) {
+
+        log.debug("Starting {} ({} bytes)", file, size);
+        inFlight++;
+        bytesInFlight += size;
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Result result = null;
+                try {
+                    result = new Result(file, size, EbtsParser.parse(file.toFile(), parseSpec), null);
+                } catch (final EbtsParsingException e) {
+                    result = new Result(file, size, null, e);
+                } catch (final RuntimeException e) {
+                    result = new Result(file, size, null, new EbtsParsingException("Unhandled Parsing Exception", e));
+                } finally {
+                    //Always report the file, so that its share of the budget is released
+                    completed.add(result != null ? result : new Result(file, size, null, new EbtsParsingException("Unable to parse file: " + file)));
+                }
+            }
+        });
+    }
+
+    /**
+     * The outcome of parsing one file of a batch: either the parsed {@link Ebts} or the error that prevented it.
+     */
+    public static final class Result {
+
+        private final Path path;
+        private final long size;
+        private final Ebts ebts;
+        private final EbtsParsingException error;
+
+        Result(final Path path, final long size, final Ebts ebts, final EbtsParsingException error) {
+            this.path = path;
+            this.size = size;
+            this.ebts = ebts;
+            this.error = error;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        /**
+         * @return the parsed file, or null if it failed
+         */
+        public Ebts getEbts() {
+            return ebts;
+        }
+
+        /**
+         * @return the reason the file could not be parsed, or null if it succeeded
+         */
+        public EbtsParsingException getError() {
+            return error;
+        }
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{" +
+                    "path=" + path +
+                    ", success=" + isSuccess() +
+                    '}';
+        }
+    }
+}
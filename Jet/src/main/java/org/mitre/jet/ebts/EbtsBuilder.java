@@ -17,6 +17,7 @@
 
 package org.mitre.jet.ebts;
 
+import org.mitre.jet.common.ByteBufferUtils;
 import org.mitre.jet.ebts.field.Field;
 import org.mitre.jet.ebts.field.Occurrence;
 import org.mitre.jet.ebts.field.SubField;
@@ -69,22 +70,28 @@ public class EbtsBuilder {
      */
     private void fixCountField(final GenericRecord record) {
 
-        final List<Occurrence> occurrences = new ArrayList<Occurrence>();
+        final List<LogicalRecord> records = ebts.getOrderedRecords();
+        final List<Occurrence> occurrences = new ArrayList<Occurrence>(records.size());
+        //Records without an IDC are numbered after the highest IDC, which is only looked up once
+        int nextAvailableIdc = -1;
 
-        for (final LogicalRecord logicalRecord : ebts.getAllRecords()) {
+        for (final LogicalRecord logicalRecord : records) {
             final Occurrence occurrence = new Occurrence();
             //First occurrence contains 1 - # of records
             if (logicalRecord.getRecordType() == 1) {
                 occurrence.getSubFields().add(new SubField("1"));
-                final String length = String.format("%02d", ebts.getAllRecords().size()-1);
+                final String length = String.format("%02d", records.size()-1);
                 occurrence.getSubFields().add(new SubField(length));
             } 
             //Subsequent occurrences contain FieldOccurrence # - IDC
             else {
                 occurrence.getSubFields().add(new SubField(Integer.toString(logicalRecord.getRecordType())));
                 int nextIdc = logicalRecord.getIdc();
-                if (logicalRecord.getIdc() == -1) {
-                    nextIdc = getNextAvailableIDC();
+                if (nextIdc == -1) {
+                    if (nextAvailableIdc == -1) {
+                        nextAvailableIdc = ebts.getMaxIdc() + 1;
+                    }
+                    nextIdc = nextAvailableIdc++;
                 }
                 final String idc = String.format("%02d", nextIdc);
                 logicalRecord.setIdc((byte) nextIdc);
@@ -95,40 +102,6 @@ public class EbtsBuilder {
         record.setField(3, new Field(occurrences));
     }
 
-    /**
-     * Gets the next available idc.
-     *
-     * @return the next available idc
-     */
-    private int getNextAvailableIDC() {
-
-        int highestIdc = -1;
-        for (final LogicalRecord rec : ebts.getAllRecords()) {
-            if (rec.getRecordType() != 1) {
-
-                final Field idcField = rec.getField(2);
-
-                if (idcField == null) {
-                    continue;
-                }
-
-                final String idcString = idcField.toString();
-
-                if (idcString.isEmpty()) {
-                    continue;
-                }
-
-                final int currentIdc = Integer.parseInt(idcString);
-
-                if (currentIdc > highestIdc) {
-                    highestIdc = currentIdc;
-                }
-            }
-        }
-
-        return highestIdc + 1;
-    }
-
     /**
      * Generic builder.
      *
@@ -158,7 +131,7 @@ public class EbtsBuilder {
                 final String tag = recordType + "." + String.format("%0" + minLength + "d", entry.getKey()) + ":";
 
                 recordOutputStream.write(tag.getBytes());
-                recordOutputStream.write(entry.getValue().getData());
+                entry.getValue().writeTo(recordOutputStream);
 
                 if (fieldCount != record.getFields().keySet().size()) {
                     recordOutputStream.write((int) EbtsConstants.SEPARATOR_GROUP);
@@ -188,7 +161,7 @@ public class EbtsBuilder {
             baos.write(Integer.toString(recordLength).getBytes());
             baos.write((int) EbtsConstants.SEPARATOR_GROUP);
             //Write the rest of the record to the primary output stream
-            baos.write(recordOutputStream.toByteArray());
+            recordOutputStream.writeTo(baos);
 
         } catch (final IOException ex) {
             throw new EbtsBuildingException("Error building generic ebts record");
@@ -206,7 +179,7 @@ public class EbtsBuilder {
         //Don't need to worry about length as its generated in the record
         try {
             baos.write(record.getHeader());
-            baos.write(record.getImageData());
+            ByteBufferUtils.write(record.getImageBuffer(), baos);
 
             //throw new UnsupportedOperationException("Not yet implemented");
         } catch (final IOException ex) {
@@ -233,12 +206,13 @@ public class EbtsBuilder {
      * @throws EbtsBuildingException the ebts building exception
      */
     public byte[] build(final Ebts ebts) throws EbtsBuildingException {
-        this.ebts = ebts;
+        //The CNT field and any missing IDCs are filled in on the records, so a frozen Ebts is built from a copy
+        this.ebts = ebts.isFrozen() ? ebts.thaw() : ebts;
         //Create the auto-expanding output stream
         final ByteArrayOutputStream baos = new ByteArrayOutputStream();
         //Get list of all records
         //Overwrite CNT field(1.03)
-        final List<LogicalRecord> records = ebts.getAllRecords();
+        final List<LogicalRecord> records = this.ebts.getOrderedRecords();
         for (final LogicalRecord record : records) {
 
             if (genericTypes.contains(record.getRecordType())) {
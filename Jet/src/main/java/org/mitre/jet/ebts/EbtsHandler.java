@@ -0,0 +1,77 @@
+/*
+ * Copyright 2014 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mitre.jet.ebts;
+
+import org.mitre.jet.exceptions.EbtsParsingException;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ *     Receives the contents of an Ebts file as a sequence of events, in file order, rather than as an {@link Ebts}.
+ *     See {@link EbtsParser#parse(ByteBuffer, EbtsHandler, Type7Handling)}.
+ * </p>
+ * <p>
+ *     Every record produces a {@link #startRecord} event, followed by its {@link #field} and {@link #imageData}
+ *     events unless it was skipped, and then an {@link #endRecord} event.
+ * </p>
+ * <p>
+ *     The buffers passed to the handler are read-only views of the data being parsed. They are reused between
+ *     events, so a handler that needs the contents afterwards must copy them (or {@link ByteBuffer#slice()} them)
+ *     before returning.
+ * </p>
+ */
+public interface EbtsHandler {
+
+    /**
+     * Called at the start of each logical record.
+     *
+     * @param recordType the record type
+     * @param idc the IDC listed for the record in the 1.003 CNT field, or -1 for the Type-1
+     * @return true to receive the fields of the record, false to skip over it using its LEN field
+     * @throws EbtsParsingException to abort parsing
+     */
+    boolean startRecord(int recordType, int idc) throws EbtsParsingException;
+
+    /**
+     * Called for each field of the record other than its image data. Binary header values
+     * (e.g. 4.003 IMP) are given in the same text form that {@link org.mitre.jet.ebts.field.Field} holds them.
+     *
+     * @param fieldNumber the field number (e.g. 18 for 2.018)
+     * @param value the field data, including any RS/US separators but not the trailing GS/FS
+     * @throws EbtsParsingException to abort parsing
+     */
+    void field(int fieldNumber, ByteBuffer value) throws EbtsParsingException;
+
+    /**
+     * Called for the image data of the record, if any.
+     *
+     * @param fieldNumber the field number of the image data (e.g. 999 for 10.999, 9 for 4.009)
+     * @param data the image data
+     * @throws EbtsParsingException to abort parsing
+     */
+    void imageData(int fieldNumber, ByteBuffer data) throws EbtsParsingException;
+
+    /**
+     * Called at the end of each logical record, including skipped records.
+     *
+     * @param recordType the record type
+     * @return true to continue with the next record, false to stop parsing
+     * @throws EbtsParsingException to abort parsing
+     */
+    boolean endRecord(int recordType) throws EbtsParsingException;
+}
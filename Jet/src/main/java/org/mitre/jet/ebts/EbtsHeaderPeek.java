@@ -0,0 +1,263 @@
+/*
+ * Copyright 2014 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mitre.jet.ebts;
+
+import org.mitre.jet.exceptions.EbtsParsingException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <p>
+ *     The routing fields of an Ebts file's Type-1 record: 1.002 VER, 1.004 TOT, 1.007 DAI, 1.008 ORI and
+ *     1.009 TCN. Only the Type-1 is read, and no {@link Ebts}, records or fields are built, so a transaction
+ *     can be routed without parsing it:
+ * </p>
+ * <pre>
+ *     EbtsHeaderPeek header = EbtsHeaderPeek.peek(bytes);
+ *     if ("CAR".equals(header.getTransactionType())) {
+ *         ...
+ *     }
+ * </pre>
+ *
+ * @author ADAY
+ */
+public final class EbtsHeaderPeek {
+
+    /**
+     * Longest Type-1 read from a channel. A Type-1 listing the most records CNT allows is only a few kilobytes,
+     * so a longer LEN is taken to be corrupt or hostile rather than allocated.
+     */
+    static final int MAX_TYPE1_LENGTH = 64 * 1024;
+
+    private final int version;
+    private final String transactionType;
+    private final String destinationAgency;
+    private final String originatingAgency;
+    private final String transactionControlNumber;
+    private final int length;
+
+    private EbtsHeaderPeek(final Collector collector, final int length) {
+        this.version = collector.version;
+        this.transactionType = collector.transactionType;
+        this.destinationAgency = collector.destinationAgency;
+        this.originatingAgency = collector.originatingAgency;
+        this.transactionControlNumber = collector.transactionControlNumber;
+        this.length = length;
+    }
+
+    /**
+     * Reads the routing fields from the Type-1 at the start of an Ebts file.
+     *
+     * @param bytes Byte array containing the Ebts file, or at least its Type-1.
+     * @return the routing fields
+     * @throws EbtsParsingException if the Type-1 is malformed
+     */
+    public static EbtsHeaderPeek peek(final byte[] bytes) throws EbtsParsingException {
+        return peek(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Reads the routing fields from the Type-1 at the start of an Ebts file held in a buffer.
+     *
+     * @param buffer Buffer containing the Ebts file, or at least its Type-1, from its position. The position is not changed.
+     * @return the routing fields
+     * @throws EbtsParsingException if the Type-1 is malformed
+     */
+    public static EbtsHeaderPeek peek(final ByteBuffer buffer) throws EbtsParsingException {
+
+        final Collector collector = new Collector();
+        final int length;
+        try {
+            length = new EbtsTokenizer(Type7Handling.TREAT_AS_TYPE4).tokenizeRecord(1, -1, buffer, collector);
+        } catch (final RuntimeException e) {
+            throw new EbtsParsingException("Unhandled Parsing Exception", e);
+        }
+        if (length <= 0) {
+            throw new EbtsParsingException("Error Parsing Type 1. No data was parsed.", 1, -1, -1);
+        }
+        return new EbtsHeaderPeek(collector, length);
+    }
+
+    /**
+     * Reads the routing fields from the Type-1 at the start of an Ebts file arriving on a channel. Exactly the
+     * bytes of the Type-1 are consumed, so the rest of the file can still be read from the channel.
+     *
+     * @param channel Channel positioned at the start of the Ebts file.
+     * @return the routing fields
+     * @throws IOException if the channel cannot be read
+     * @throws EbtsParsingException if the Type-1 is malformed, longer than 64 KiB, or the channel ends part way through it
+     */
+    public static EbtsHeaderPeek peek(final ReadableByteChannel channel) throws IOException, EbtsParsingException {
+
+        //Read just enough to find the LEN, which is always well within the Type-1
+        final ByteBuffer prefix = ByteBuffer.allocate(RecordFraming.MAX_LENGTH_PREFIX);
+        int length = -1;
+        while (length == -1) {
+            if (!prefix.hasRemaining() || channel.read(prefix) == -1) {
+                throw new EbtsParsingException("Unexpected end of data reading record length", 1, 1, -1);
+            }
+            prefix.flip();
+            length = RecordFraming.recordLength(1, prefix);
+            prefix.position(prefix.limit()).limit(prefix.capacity());
+        }
+        if (length < prefix.position()) {
+            throw new EbtsParsingException("Error Parsing Type 1. Record length incorrect?", 1, 1, -1);
+        }
+        if (length > MAX_TYPE1_LENGTH) {
+            throw new EbtsParsingException("Error Parsing Type 1. Record length " + length + " exceeds the maximum of "
+                    + MAX_TYPE1_LENGTH + ".", 1, 1, -1);
+        }
+
+        final ByteBuffer record = ByteBuffer.allocate(length);
+        prefix.flip();
+        record.put(prefix);
+        while (record.hasRemaining()) {
+            if (channel.read(record) == -1) {
+                throw new EbtsParsingException("Unexpected end of data. Record length incorrect?", 1, -1, -1);
+            }
+        }
+        record.flip();
+        return peek(record);
+    }
+
+    /**
+     * @return the 1.002 VER field as a number (e.g. 502 for 0502), or -1 if it is missing or not numeric
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the 1.004 TOT field, or null if it is missing
+     */
+    public String getTransactionType() {
+        return transactionType;
+    }
+
+    /**
+     * @return the 1.007 DAI field, or null if it is missing
+     */
+    public String getDestinationAgency() {
+        return destinationAgency;
+    }
+
+    /**
+     * @return the 1.008 ORI field, or null if it is missing
+     */
+    public String getOriginatingAgency() {
+        return originatingAgency;
+    }
+
+    /**
+     * @return the 1.009 TCN field, or null if it is missing
+     */
+    public String getTransactionControlNumber() {
+        return transactionControlNumber;
+    }
+
+    /**
+     * @return the length of the Type-1, from its LEN field
+     */
+    public int getLength() {
+        return length;
+    }
+
+    @Override
+    public String toString() {
+        return "EbtsHeaderPeek{" +
+                "version=" + version +
+                ", transactionType='" + transactionType + '\'' +
+                ", destinationAgency='" + destinationAgency + '\'' +
+                ", originatingAgency='" + originatingAgency + '\'' +
+                ", transactionControlNumber='" + transactionControlNumber + '\'' +
+                '}';
+    }
+
+    /**
+     * Keeps the routing fields of the Type-1 as they are tokenized.
+     */
+    private static final class Collector implements EbtsHandler {
+
+        private int version = -1;
+        private String transactionType;
+        private String destinationAgency;
+        private String originatingAgency;
+        private String transactionControlNumber;
+
+        @Override
+        public boolean startRecord(final int recordType, final int idc) {
+            return true;
+        }
+
+        @Override
+        public void field(final int fieldNumber, final ByteBuffer value) {
+            switch (fieldNumber) {
+                case 2:
+                    version = parseVersion(value);
+                    break;
+                case 4:
+                    transactionType = text(value);
+                    break;
+                case 7:
+                    destinationAgency = text(value);
+                    break;
+                case 8:
+                    originatingAgency = text(value);
+                    break;
+                case 9:
+                    transactionControlNumber = text(value);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        @Override
+        public void imageData(final int fieldNumber, final ByteBuffer data) {}
+
+        @Override
+        public boolean endRecord(final int recordType) {
+            return false;
+        }
+
+        private static int parseVersion(final ByteBuffer value) {
+
+            if (!value.hasRemaining() || value.remaining() > 9) {
+                return -1;
+            }
+            int number = 0;
+            for (int position = value.position(); position < value.limit(); position++) {
+                final int digit = value.get(position) - '0';
+                if (digit < 0 || digit > 9) {
+                    return -1;
+                }
+                number = number * 10 + digit;
+            }
+            return number;
+        }
+
+        private static String text(final ByteBuffer value) {
+
+            final byte[] bytes = new byte[value.remaining()];
+            value.duplicate().get(bytes);
+            return new String(bytes, StandardCharsets.US_ASCII);
+        }
+    }
+}
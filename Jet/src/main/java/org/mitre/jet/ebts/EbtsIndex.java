@@ -0,0 +1,258 @@
+/*
+ * Copyright 2014 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mitre.jet.ebts;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import org.mitre.jet.ebts.records.LogicalRecord;
+import org.mitre.jet.exceptions.EbtsParsingException;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>
+ *     The location of every logical record in an Ebts file, found from the 1.003 CNT field and the LEN field of
+ *     each record without parsing any other fields. Individual records can then be parsed on their own:
+ * </p>
+ * <pre>
+ *     EbtsIndex index = EbtsIndex.build(bytes);
+ *     LogicalRecord type14 = index.parseRecord(index.getEntry(14, 3));
+ * </pre>
+ *
+ * @author ADAY
+ */
+public final class EbtsIndex {
+
+    private final ByteBuffer buffer;
+    private final boolean shared;
+    private final List<Entry> entries;
+    private final ListMultimap<Integer, Entry> entriesByType = ArrayListMultimap.create();
+
+    private EbtsIndex(final ByteBuffer buffer, final boolean shared, final List<Entry> entries) {
+        this.buffer = buffer;
+        this.shared = shared;
+        this.entries = Collections.unmodifiableList(entries);
+        for (final Entry entry : entries) {
+            entriesByType.put(entry.getRecordType(), entry);
+        }
+    }
+
+    /**
+     * Indexes an Ebts file.
+     *
+     * @param bytes Byte array containing the Ebts file.
+     * @return the index
+     * @throws EbtsParsingException if the Type-1 or a LEN field cannot be read
+     */
+    public static EbtsIndex build(final byte[] bytes) throws EbtsParsingException {
+        return build(ByteBuffer.wrap(bytes), false);
+    }
+
+    /**
+     * Indexes an Ebts file held in a buffer. Records parsed through the index hold views of the buffer,
+     * as with {@link EbtsParser#parse(ByteBuffer, ParseSpec)}.
+     *
+     * @param buffer Buffer containing the Ebts file, from its position to its limit. Offsets are relative to its position.
+     * @return the index
+     * @throws EbtsParsingException if the Type-1 or a LEN field cannot be read
+     */
+    public static EbtsIndex build(final ByteBuffer buffer) throws EbtsParsingException {
+        return build(buffer.slice(), true);
+    }
+
+    /**
+     * Indexes an Ebts file by memory-mapping it.
+     *
+     * @param file File containing the Ebts file.
+     * @return the index
+     * @throws EbtsParsingException if the file cannot be read, or the Type-1 or a LEN field cannot be read
+     */
+    public static EbtsIndex build(final File file) throws EbtsParsingException {
+        return build(EbtsParser.map(file));
+    }
+
+    private static EbtsIndex build(final ByteBuffer bb, final boolean shared) throws EbtsParsingException {
+
+        final List<Entry> entries = new ArrayList<Entry>();
+        try {
+            final EbtsTokenizer tokenizer = new EbtsTokenizer(Type7Handling.TREAT_AS_TYPE4);
+            int offset = tokenizer.tokenizeType1(bb, EbtsTokenizer.IGNORE);
+            entries.add(new Entry(1, -1, 0, offset));
+
+            final int[] recordTypes = tokenizer.getRecordTypes();
+            final int[] recordIdcs = tokenizer.getRecordIdcs();
+            for (int i = 0; i < recordTypes.length; i++) {
+                final int recordType = recordTypes[i];
+
+                //Skip Type 1
+                if (recordType != 1) {
+                    bb.position(offset);
+                    final int length = RecordFraming.recordLength(recordType, bb);
+                    if (length <= 0) {
+                        throw new EbtsParsingException("Error parsing record. Empty record?", recordType, -1, recordIdcs[i]);
+                    }
+                    if (length > bb.remaining()) {
+                        throw new EbtsParsingException("Error parsing record. Record length exceeds the data.", recordType, 1, recordIdcs[i]);
+                    }
+                    entries.add(new Entry(recordType, recordIdcs[i], offset, length));
+                    offset += length;
+                }
+            }
+        } catch (final RuntimeException e) {
+            throw new EbtsParsingException("Unhandled Parsing Exception", e);
+        }
+
+        bb.clear();
+        return new EbtsIndex(bb, shared, entries);
+    }
+
+    /**
+     * Returns every record in the file.
+     *
+     * @return the entries, in file (CNT) order
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Returns the records of a given type.
+     *
+     * @param recordType the record type
+     * @return the entries, in file order
+     */
+    public List<Entry> getEntries(final int recordType) {
+        return Collections.unmodifiableList(entriesByType.get(recordType));
+    }
+
+    /**
+     * Returns the record with a given type and IDC.
+     *
+     * @param recordType the record type
+     * @param idc the IDC, as listed in the 1.003 CNT field
+     * @return the entry, or null if there is no such record
+     */
+    public Entry getEntry(final int recordType, final int idc) {
+        for (final Entry entry : entriesByType.get(recordType)) {
+            if (entry.getIdc() == idc) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns a read-only view of the bytes of a record.
+     *
+     * @param entry the entry
+     * @return the record data
+     */
+    public ByteBuffer getRecordData(final Entry entry) {
+        final ByteBuffer data = buffer.asReadOnlyBuffer();
+        data.limit(entry.getOffset() + entry.getLength());
+        data.position(entry.getOffset());
+        return data.slice();
+    }
+
+    public LogicalRecord parseRecord(final Entry entry) throws EbtsParsingException {
+        return parseRecord(entry, Type7Handling.TREAT_AS_TYPE4);
+    }
+
+    public LogicalRecord parseRecord(final Entry entry, final Type7Handling type7Handling) throws EbtsParsingException {
+        return parseRecord(entry, ParseSpec.of(ParseType.FULL, type7Handling));
+    }
+
+    /**
+     * Parses a single record of the file.
+     *
+     * @param entry the entry
+     * @param parseSpec the fields to parse, and how type 7 records are laid out
+     * @return the record, or null if the spec excludes records of its type
+     * @throws EbtsParsingException the ebts parsing exception
+     */
+    public LogicalRecord parseRecord(final Entry entry, final ParseSpec parseSpec) throws EbtsParsingException {
+        try {
+            return EbtsParser.parseRecord(entry.getRecordType(), getRecordData(entry), parseSpec, shared);
+        } catch (final RuntimeException e) {
+            throw new EbtsParsingException("Unhandled Parsing Exception", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "EbtsIndex{" +
+                "entries=" + entries +
+                '}';
+    }
+
+    /**
+     * The location of a logical record.
+     */
+    public static final class Entry {
+
+        private final int recordType;
+        private final int idc;
+        private final int offset;
+        private final int length;
+
+        Entry(final int recordType, final int idc, final int offset, final int length) {
+            this.recordType = recordType;
+            this.idc = idc;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public int getRecordType() {
+            return recordType;
+        }
+
+        /**
+         * @return the IDC listed in the 1.003 CNT field, or -1 for the Type-1 or if none was listed
+         */
+        public int getIdc() {
+            return idc;
+        }
+
+        /**
+         * @return the byte offset of the record from the start of the file
+         */
+        public int getOffset() {
+            return offset;
+        }
+
+        /**
+         * @return the record length, from its LEN field
+         */
+        public int getLength() {
+            return length;
+        }
+
+        @Override
+        public String toString() {
+            return "Entry{" +
+                    "recordType=" + recordType +
+                    ", idc=" + idc +
+                    ", offset=" + offset +
+                    ", length=" + length +
+                    '}';
+        }
+    }
+}
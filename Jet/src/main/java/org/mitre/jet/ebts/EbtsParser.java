@@ -16,14 +16,9 @@
 
 package org.mitre.jet.ebts;
 
-import com.google.common.collect.Sets;
 import com.google.common.io.Files;
-import com.google.common.primitives.Ints;
-import org.mitre.jet.common.ByteBufferUtils;
 import org.mitre.jet.ebts.field.Field;
 import org.mitre.jet.ebts.field.Occurrence;
-import org.mitre.jet.ebts.records.BinaryHeaderImageRecord;
-import org.mitre.jet.ebts.records.GenericRecord;
 import org.mitre.jet.ebts.records.LogicalRecord;
 import org.mitre.jet.exceptions.EbtsParsingException;
 import org.slf4j.Logger;
@@ -31,30 +26,109 @@ import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
- * The Class EbtsParser
+ * <p>
+ *     Parses Ebts files. The static methods parse a single file with freshly allocated working state.
+ * </p>
+ * <p>
+ *     An instance parses file after file with the same {@link ParseSpec}, keeping its tokenizer, separator index
+ *     and file read buffers between parses rather than allocating them each time, so that one parser per worker
+ *     thread parses with little garbage beyond the records it returns. Fields parsed by an instance are split into
+ *     occurrences and subfields by scanning them when first accessed, as the separator index is reused for the
+ *     next record. An instance is not thread-safe.
+ * </p>
  *
  * @author ADAY
  */
 public class EbtsParser {
 
     private static final Logger log = LoggerFactory.getLogger(EbtsParser.class);
-    private static final Set<Integer> BINARY_HEADER_RECORD_TYPES = EbtsUtils.getBinaryHeaderTypes();
-    private static final Set<Integer> GENERIC_RECORD_TYPES = EbtsUtils.getGenericRecordTypes();
 
-    private static final byte COLON = 0x3a;
+    private final EbtsTokenizer tokenizer;
+    /** Builds records from copies of the data, for input that is reused after parsing. */
+    private final LogicalRecordHandler copyingHandler;
+    /** Builds records holding views of the data, for input that is kept. */
+    private final LogicalRecordHandler sharingHandler;
 
-    private static final Set<String> IMAGE_MIME_EXTENSIONS = Sets.newHashSet(".jpg", ".jp2", ".png", ".tiff", ".gif");
+    /** Read buffers for {@link #read(File)}, kept between files. */
+    private final ByteBuffer prefixBuffer = ByteBuffer.allocate(RecordFraming.MAX_LENGTH_PREFIX);
+    private ByteBuffer recordBuffer = ByteBuffer.allocate(0);
 
     /**
      * Create an Ebts Parser to parse all of the record/field data in an Ebts
      * file.
      */
-    public EbtsParser() {}
+    public EbtsParser() {
+        this(ParseSpec.builder().build());
+    }
+
+    /**
+     * Create an Ebts Parser to parse the records and fields of Ebts files selected by a {@link ParseSpec}.
+     *
+     * @param parseSpec The records and fields to parse.
+     */
+    public EbtsParser(final ParseSpec parseSpec) {
+        this.tokenizer = new EbtsTokenizer(parseSpec.getType7Handling());
+        this.copyingHandler = new LogicalRecordHandler(tokenizer, parseSpec, false, false);
+        this.sharingHandler = new LogicalRecordHandler(tokenizer, parseSpec, true, false);
+    }
+
+    /**
+     * Parses an Ebts file. The data is copied, so the array may be reused once this returns.
+     *
+     * @param bytes Byte array containing the Ebts file to be parsed.
+     * @return Ebts instance
+     * @throws EbtsParsingException the ebts parsing exception
+     */
+    public Ebts read(final byte[] bytes) throws EbtsParsingException {
+        return tokenize(ByteBuffer.wrap(bytes), copyingHandler);
+    }
+
+    /**
+     * Parses an Ebts file held in a buffer without copying its image data or large text fields,
+     * as with {@link #parse(ByteBuffer, ParseSpec)}.
+     *
+     * @param buffer Buffer containing the Ebts file to be parsed, from its position to its limit.
+     * @return Ebts instance
+     * @throws EbtsParsingException the ebts parsing exception
+     */
+    public Ebts read(final ByteBuffer buffer) throws EbtsParsingException {
+        return tokenize(buffer.slice(), sharingHandler);
+    }
+
+    /**
+     * Parses an Ebts file, reading only the records that are parsed, as with {@link #parse(File, ParseSpec)}.
+     * Each record is read into a buffer kept by the parser and reused for the next one.
+     *
+     * @param file File containing the Ebts file to be parsed.
+     * @return Ebts instance
+     * @throws EbtsParsingException the ebts parsing exception
+     */
+    public Ebts read(final File file) throws EbtsParsingException {
+        copyingHandler.reset();
+        return parse(file, tokenizer, copyingHandler, this);
+    }
+
+    private Ebts tokenize(final ByteBuffer bb, final LogicalRecordHandler handler) throws EbtsParsingException {
+        handler.reset();
+        try {
+            tokenizer.tokenize(bb, handler);
+        }
+        catch(final RuntimeException e) {
+            throw new EbtsParsingException("Unhandled Parsing Exception",e);
+        }
+        return handler.getEbts();
+    }
 
     public static Ebts parse(final byte[] bytes, final ParseType parseType) throws EbtsParsingException {
         return EbtsParser.parse(bytes,parseType,Type7Handling.TREAT_AS_TYPE4);
@@ -72,532 +146,459 @@ public class EbtsParser {
          * @throws EbtsParsingException the ebts parsing exception
          */
     public static Ebts parse(final byte[] bytes, final ParseType parseType, Type7Handling type7Handling) throws EbtsParsingException {
-        final Ebts ebts = new Ebts();
-        try {
-            final ByteBuffer bb = ByteBuffer.wrap(bytes);
-            log.debug("Parsing Record Type: 1");
-            // Go after the first record (Type1) in the Ebts data
-            final LogicalRecord type1Record = parseGenericRecord(1, bb.slice());
-            ebts.addRecord(type1Record);
-
-            //Update the position of the byte buffer to be past the parsed data
-            if (type1Record.getLength() > 0) {
-                bb.position(bb.position() + type1Record.getLength());
-            } else {
-                throw new EbtsParsingException("Error Parsing Type 1. No data was parsed.", 1, -1, -1);
-            }
+        return parse(bytes, ParseSpec.of(parseType, type7Handling));
+    }
 
-            final Field cntField = type1Record.getField(3);
+    /**
+     * Parses the records and fields of an Ebts file selected by a {@link ParseSpec}.
+     *
+     * @param bytes Byte array containing the Ebts file to be parsed.
+     * @param parseSpec The records and fields to parse.
+     * @return Ebts instance
+     * @throws EbtsParsingException the ebts parsing exception
+     */
+    public static Ebts parse(final byte[] bytes, final ParseSpec parseSpec) throws EbtsParsingException {
+        return parse(ByteBuffer.wrap(bytes), parseSpec, false);
+    }
 
-            if (cntField == null) {
-                throw new EbtsParsingException("Field 1/CNT not found");
-            }
+    /**
+     * Parses an Ebts file held in a buffer without copying its image data or large text fields.
+     * The returned Ebts holds read-only views of the buffer, so the buffer contents must not be changed
+     * for as long as the Ebts is in use. Use {@link LogicalRecord#getImageBuffer()} to read the image
+     * data without copying it.
+     *
+     * @param buffer Buffer containing the Ebts file to be parsed, from its position to its limit.
+     * @return Ebts instance
+     * @throws EbtsParsingException the ebts parsing exception
+     */
+    public static Ebts parse(final ByteBuffer buffer, final ParseType parseType, final Type7Handling type7Handling) throws EbtsParsingException {
+        return parse(buffer, ParseSpec.of(parseType, type7Handling));
+    }
 
-            //Get all of the records from the IDC list in 1.03
-            final List<Occurrence> idcs = cntField.getOccurrences();
-            if (idcs != null && !idcs.isEmpty()) {
-                for (final Occurrence idcOccurrence : idcs) {
-                    final int recordType = Integer.parseInt(idcOccurrence.getSubFields().get(0).toString());
-
-                    //Skip Type 1
-                    if (recordType != 1) {
-                        final LogicalRecord record;
-                        //Determine the record type and use correct parser based on the type
-                        log.debug("Parsing type: {}", recordType);
-                        if (GENERIC_RECORD_TYPES.contains(recordType)) {
-                            record = parseGenericRecord(recordType, bb.slice());
-                        } else if (BINARY_HEADER_RECORD_TYPES.contains(recordType) && recordType != 7 && recordType != 8) {
-                            record = parseType3456(recordType, bb.slice());
-                        } else if (recordType == 7) {
-                            record = parseType7(recordType, bb.slice(), type7Handling);
-                        } else if (recordType == 8) {
-                            record = parseType8(recordType, bb.slice());
-                        } else {
-                            throw new EbtsParsingException("File contains unsupported record type", recordType, -1, -1);
-                        }
-                        if (record != null) {
-                            ebts.addRecord(record);
-                            //Update the position of the byte buffer to be past the parsed data
-                            if (record.getLength() > 0 && bb.position() >= 0) {
-                                bb.position(bb.position() + record.getLength());
-                            } else {
-                                throw new EbtsParsingException("Error parsing record. Empty record?", recordType, -1, -1);
-                            }
-                        } else {
-                            throw new EbtsParsingException("Error parsing record", recordType, -1, -1);
-                        }
-
-                        if (parseType.equals(ParseType.DESCRIPTIVE_ONLY) && recordType == 2) {
-                            break;
-                        }
-                    }
-                }
-            } else {
-                throw new EbtsParsingException("Unable to parse IDC List in Type 1 Field 3.", 1, 3, -1);
+    /**
+     * Parses the records and fields of an Ebts file selected by a {@link ParseSpec}, without copying its image
+     * data or large text fields; see {@link #parse(ByteBuffer, ParseType, Type7Handling)}.
+     *
+     * @param buffer Buffer containing the Ebts file to be parsed, from its position to its limit.
+     * @param parseSpec The records and fields to parse.
+     * @return Ebts instance
+     * @throws EbtsParsingException the ebts parsing exception
+     */
+    public static Ebts parse(final ByteBuffer buffer, final ParseSpec parseSpec) throws EbtsParsingException {
+        return parse(buffer.slice(), parseSpec, true);
+    }
+
+    /**
+     * Parses an Ebts file by memory-mapping it rather than reading it onto the heap.
+     * Image data and large text fields remain views of the mapping; see {@link #parse(ByteBuffer, ParseType, Type7Handling)}.
+     *
+     * @param file File containing the Ebts file to be parsed.
+     * @return Ebts instance
+     * @throws EbtsParsingException the ebts parsing exception
+     */
+    public static Ebts parseMapped(final File file, final ParseType parseType, final Type7Handling type7Handling) throws EbtsParsingException {
+        return parseMapped(file, ParseSpec.of(parseType, type7Handling));
+    }
+
+    public static Ebts parseMapped(final File file, final ParseSpec parseSpec) throws EbtsParsingException {
+        return parse(map(file), parseSpec);
+    }
+
+    public static Ebts parseMapped(final File file) throws EbtsParsingException {
+        return parseMapped(file, ParseType.FULL, Type7Handling.TREAT_AS_TYPE4);
+    }
+
+    /**
+     * Memory-maps a file read-only.
+     *
+     * @param file the file
+     * @return the mapping
+     * @throws EbtsParsingException if the file cannot be mapped
+     */
+    static ByteBuffer map(final File file) throws EbtsParsingException {
+        try {
+            final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            try {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } finally {
+                channel.close();
             }
+        } catch (final IOException e) {
+            throw new EbtsParsingException(e);
+        }
+    }
+
+    private static Ebts parse(final ByteBuffer bb, final ParseSpec parseSpec, final boolean shared) throws EbtsParsingException {
+        final EbtsTokenizer tokenizer = new EbtsTokenizer(parseSpec.getType7Handling());
+        final LogicalRecordHandler handler = new LogicalRecordHandler(tokenizer, parseSpec, shared);
+        try {
+            tokenizer.tokenize(bb, handler);
         }
         catch(final RuntimeException e) {
             throw new EbtsParsingException("Unhandled Parsing Exception",e);
         }
-        return ebts;
+        return handler.getEbts();
     }
 
+    /**
+     * Parses an Ebts file, leaving out records that cannot be parsed rather than failing. A record with an error
+     * is reported as a {@link ParseResult.Diagnostic} and parsing resumes at the end of the record given by its
+     * LEN field or, failing that, after the next FS separator. Errors in the Type-1 are still thrown, as it lists
+     * the records in the file.
+     *
+     * @param bytes Byte array containing the Ebts file to be parsed.
+     * @param parseSpec The records and fields to parse.
+     * @return the records that were parsed, and the errors found
+     * @throws EbtsParsingException if the Type-1 cannot be parsed
+     */
+    public static ParseResult parseLenient(final byte[] bytes, final ParseSpec parseSpec) throws EbtsParsingException {
+        return parseLenient(ByteBuffer.wrap(bytes), parseSpec, false);
+    }
 
-    public static Ebts parse(final byte[] bytes) throws EbtsParsingException {
-        return parse(bytes,ParseType.FULL);
+    /**
+     * Parses an Ebts file held in a buffer, leaving out records that cannot be parsed rather than failing;
+     * see {@link #parseLenient(byte[], ParseSpec)}. As with {@link #parse(ByteBuffer, ParseSpec)}, the Ebts holds
+     * views of the buffer.
+     *
+     * @param buffer Buffer containing the Ebts file to be parsed, from its position to its limit.
+     * @param parseSpec The records and fields to parse.
+     * @return the records that were parsed, and the errors found
+     * @throws EbtsParsingException if the Type-1 cannot be parsed
+     */
+    public static ParseResult parseLenient(final ByteBuffer buffer, final ParseSpec parseSpec) throws EbtsParsingException {
+        return parseLenient(buffer.slice(), parseSpec, true);
     }
 
-    public static Ebts parse(final File file, final ParseType parseType, final Type7Handling type7Handling) throws EbtsParsingException {
-        final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        FileInputStream fileInputStream = null;
+    private static ParseResult parseLenient(final ByteBuffer bb, final ParseSpec parseSpec, final boolean shared) throws EbtsParsingException {
+        final EbtsTokenizer tokenizer = new EbtsTokenizer(parseSpec.getType7Handling());
+        final LogicalRecordHandler handler = new LogicalRecordHandler(tokenizer, parseSpec, shared);
+        final List<ParseResult.Diagnostic> diagnostics = new ArrayList<ParseResult.Diagnostic>();
         try {
-            fileInputStream = new FileInputStream(file);
-            if (parseType.equals(ParseType.FULL)) {
-                return parse(Files.toByteArray(file), parseType, type7Handling);
-            } else {
-                final int readSize = 1024;
-                final byte[] tempData = new byte[readSize];
-
-                int type1Fs = -1, type2Fs = -1;
-
-                while ((fileInputStream.read(tempData, 0, readSize)) != -1) {
-
-                    final ByteBuffer bb = ByteBuffer.wrap(tempData);
-
-                    //Search for the type1 FS if we haven't found it
-                    if (type1Fs == -1) {
-                        type1Fs = ByteBufferUtils.find(bb, EbtsConstants.SEPARATOR_FILE);
-                    } else {
-                        //If we found the type1 FS, search for the type2 FS
-                        type2Fs = ByteBufferUtils.find(bb, EbtsConstants.SEPARATOR_FILE);
-                    }
+            tokenizer.tokenize(bb, handler, diagnostics);
+        }
+        catch(final RuntimeException e) {
+            throw new EbtsParsingException("Unhandled Parsing Exception",e);
+        }
+        return new ParseResult(handler.getEbts(), diagnostics);
+    }
 
-                    //If we haven't found the type2 yet, write the entire array
-                    if (type2Fs == -1) {
-                        byteArrayOutputStream.write(tempData);
-                    } else {
-                        //If we found the type2 FS, write only up until the type2FS location
-                        byteArrayOutputStream.write(tempData,0,bb.position());
-                    }
-                }
+    /**
+     * Parses an Ebts file, reporting its records and fields to a handler rather than building an {@link Ebts}.
+     *
+     * @param bytes Byte array containing the Ebts file to be parsed.
+     * @param handler Handler receiving the parsing events.
+     * @throws EbtsParsingException the ebts parsing exception
+     */
+    public static void parse(final byte[] bytes, final EbtsHandler handler) throws EbtsParsingException {
+        parse(ByteBuffer.wrap(bytes), handler, Type7Handling.TREAT_AS_TYPE4);
+    }
 
-                final byte[] outputArray = byteArrayOutputStream.toByteArray();
+    public static void parse(final byte[] bytes, final EbtsHandler handler, final Type7Handling type7Handling) throws EbtsParsingException {
+        parse(ByteBuffer.wrap(bytes), handler, type7Handling);
+    }
 
-                return parse(outputArray, parseType, type7Handling);
-            }
-        } catch (final IOException e) {
-            throw new EbtsParsingException(e);
+    /**
+     * Parses an Ebts file, reporting its records and fields to a handler rather than building an {@link Ebts}.
+     * Nothing is copied: the handler is given views of the buffer (see {@link EbtsHandler}).
+     *
+     * @param buffer Buffer containing the Ebts file to be parsed, from its position to its limit.
+     * @param handler Handler receiving the parsing events.
+     * @param type7Handling how type 7 records are laid out
+     * @throws EbtsParsingException the ebts parsing exception
+     */
+    public static void parse(final ByteBuffer buffer, final EbtsHandler handler, final Type7Handling type7Handling) throws EbtsParsingException {
+        try {
+            new EbtsTokenizer(type7Handling).tokenize(buffer.slice(), handler);
         }
-        finally {
-            try {
-                if (fileInputStream != null) {
-                    fileInputStream.close();
-                }
-            } catch (final IOException e) {
-                throw new EbtsParsingException(e);
-            }
+        catch(final RuntimeException e) {
+            throw new EbtsParsingException("Unhandled Parsing Exception",e);
         }
     }
 
     /**
-     * Parses an Ebts file.
+     * Parses an Ebts file, parsing its logical records concurrently on the common {@link ForkJoinPool}.
      *
-     * @param file File containing the Ebts file to be parsed.
+     * @param bytes Byte array containing the Ebts file to be parsed.
+     * @param parseSpec The records and fields to parse.
      * @return Ebts instance
-     * @throws EbtsParsingException the exception
-         */
-    public static Ebts parse(final File file, final ParseType parseType) throws EbtsParsingException {
-        return parse(file, parseType, Type7Handling.TREAT_AS_TYPE4);
+     * @throws EbtsParsingException the ebts parsing exception
+     */
+    public static Ebts parseParallel(final byte[] bytes, final ParseSpec parseSpec) throws EbtsParsingException {
+        return parseParallel(EbtsIndex.build(bytes), parseSpec, ForkJoinPool.commonPool());
     }
 
-    public static Ebts parse(final File file) throws EbtsParsingException{
-        return parse(file,ParseType.FULL);
+    public static Ebts parseParallel(final byte[] bytes, final ParseSpec parseSpec, final ExecutorService executor) throws EbtsParsingException {
+        return parseParallel(EbtsIndex.build(bytes), parseSpec, executor);
     }
 
     /**
-     * Parses an Ebts file.
+     * Parses an Ebts file held in a buffer, parsing its logical records concurrently.
+     * As with {@link #parse(ByteBuffer, ParseSpec)}, the Ebts holds views of the buffer.
      *
-     * @param filePath File path containing the Ebts file to be parsed.
+     * @param buffer Buffer containing the Ebts file to be parsed, from its position to its limit.
+     * @param parseSpec The records and fields to parse.
+     * @param executor Executor on which the records are parsed.
      * @return Ebts instance
-     * @throws EbtsParsingException the exception
+     * @throws EbtsParsingException the ebts parsing exception
      */
-    @Deprecated
-    public static Ebts parse(final String filePath, final ParseType parseType) throws EbtsParsingException {
-        final File file = new File(filePath);
-        return parse(file, parseType);
+    public static Ebts parseParallel(final ByteBuffer buffer, final ParseSpec parseSpec, final ExecutorService executor) throws EbtsParsingException {
+        return parseParallel(EbtsIndex.build(buffer), parseSpec, executor);
     }
-    /*
-     * Parser for record types that contain text fields and optionally image data
-     * e.g. Type 1,2,10,14,etc
-     * 
-     */
+
     /**
-     * Type generic parser.
-     *
-     * @param type the type
-     * @param bb the bb
-     * @return the logical record
-     * @throws EbtsParsingException the ebts parsing exception
+     * Parses each record selected by the spec as a separate task, once the index has located them,
+     * then adds them to the Ebts in the order of the 1.003 CNT field.
      */
-    private static LogicalRecord parseGenericRecord(final int type, final ByteBuffer bb) throws EbtsParsingException {
-        final GenericRecord record = new GenericRecord(type);
-
-        if (bb.capacity() == 0) { //byte buffer doesn't contain data
-            //record.setField(0,new FieldOccurrence("0"));
-            return record;
+    private static Ebts parseParallel(final EbtsIndex index, final ParseSpec parseSpec, final ExecutorService executor) throws EbtsParsingException {
+
+        final List<Future<LogicalRecord>> futures = new ArrayList<Future<LogicalRecord>>();
+        for (final EbtsIndex.Entry entry : index.getEntries()) {
+            if (parseSpec.includesRecord(entry.getRecordType())) {
+                futures.add(executor.submit(new Callable<LogicalRecord>() {
+                    @Override
+                    public LogicalRecord call() throws EbtsParsingException {
+                        return index.parseRecord(entry, parseSpec);
+                    }
+                }));
+            }
+            if (parseSpec.stopsAfter(entry.getRecordType())) {
+                break;
+            }
         }
 
-        int valueSep;
-        int fieldSep;
-
-        boolean endOfRecord = false;
-        while (bb.hasRemaining() && !endOfRecord) {
-
-            valueSep = ByteBufferUtils.find(bb.slice(), COLON);
-            //Todo: Need to improve this ad hoc check
-            if (valueSep-1 > 10 || valueSep-1 < 3) {
-                int idc = -1;
-
-                final Field idcField = record.getField("idc");
-
-                if (idcField != null) {
-                    idc = Integer.parseInt(idcField.toString());
-                }
-
-                throw new EbtsParsingException("Error parsing record. Invalid field tag.",record.getRecordType(),-1,idc);
+        final Ebts ebts = new Ebts();
+        try {
+            for (final Future<LogicalRecord> future : futures) {
+                ebts.addRecord(future.get());
             }
-            final byte[] fieldTagBytes = new byte[valueSep-1];
-            bb.get(fieldTagBytes);
-            bb.position(bb.position()+1);
-            final String fieldTag;
-            //TODO: Add NON-ASCII Handling
-            try {
-                fieldTag = new String(fieldTagBytes,"ASCII");
-            } catch (final UnsupportedEncodingException e) {
-                int idc = -1;
-                if (record.hasField("IDC")) {
-                    idc = Integer.parseInt(record.getField("idc").toString());
-                }
-                throw new EbtsParsingException("Error parsing record",record.getRecordType(),-1,idc);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EbtsParsingException(e);
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof EbtsParsingException) {
+                throw (EbtsParsingException) e.getCause();
             }
-
-            fieldSep = ByteBufferUtils.find(bb.slice(), EbtsConstants.SEPARATOR_GROUP);
-
-            //Verify that the next GS doesn't exceed record length
-            //If it does, we've jumped into the next record
-            if (record.hasField(1)) {
-                if (fieldSep == -1 || bb.position()+fieldSep > record.getLength()) {
-                    //System.out.println("Record length exceeded:"+record.getRecordLength());
-                    fieldSep = ByteBufferUtils.find(bb.slice(), EbtsConstants.SEPARATOR_FILE);
-                    endOfRecord = true;
-                }
-            } else {
-                if (fieldSep > ByteBufferUtils.find(bb.slice(), EbtsConstants.SEPARATOR_FILE)) {
-                    throw new EbtsParsingException("Error parsing record",record.getRecordType(),-1,-1);
-                }
+            throw new EbtsParsingException("Unhandled Parsing Exception", e.getCause());
+        } finally {
+            for (final Future<LogicalRecord> future : futures) {
+                future.cancel(false);
             }
+        }
+        return ebts;
+    }
 
-            //Perform this check if its a .999 (image data) and not type 1/2
-            //Must check for type 1,2 as 2.999 is a user defined field
-            if ((!fieldTag.contains("999") || type == 1 || type == 2) && fieldSep != -1) {
-
-                final byte[] value = new byte[fieldSep-1];
-
-                bb.get(value);
-
-                record.setField(EbtsUtils.tagToFieldNumber(fieldTag), new Field(value,ParseContents.TRUE));
-
-                log.debug("Parsed Field: {} Data:{}",fieldTag,record.getField(EbtsUtils.tagToFieldNumber(fieldTag)).toString(";",","));
-
-                bb.position(bb.position()+1);
-            } else {
-                //The remaining data is image data
-                //Verify that the recordLength exists and that the remaining data is > 0
-                final int readLength = record.getLength()-bb.position()-1;
-                if (record.getLength() != -1 && readLength >= 0 && bb.remaining() >= readLength) {
-
-                    final byte[] value = new byte[readLength];
-                    bb.get(value);
-                    record.setImageData(value);
-                    endOfRecord = true;
-                } else {
-                    int idc = -1;
-                    if (record.hasField("IDC")) {
-                        idc = Integer.parseInt(record.getField("idc").toString());
-                    }
-                    throw new EbtsParsingException("Error parsing end of record. Record:"+record.getRecordType()+". IDC:"+idc+". Record length incorrect?",record.getRecordType(),idc,-1);
-                }
-            }
-        }                
-        return record;
+    public static Ebts parse(final byte[] bytes) throws EbtsParsingException {
+        return parse(bytes,ParseType.FULL);
     }
 
     /**
-     * Type7 parser.
+     * Returns the record types listed in the 1.003 CNT field, in file order. The first entry is the Type-1 itself.
      *
-     * @param recordType the record type
-     * @param bb the bb
-     * @return the logical record
+     * @param type1Record the parsed type 1 record
+     * @return the record types
+     * @throws EbtsParsingException if the CNT field is missing or empty
      */
-    private static LogicalRecord parseType7(final int recordType, final ByteBuffer bb, final Type7Handling type7Handling) throws EbtsParsingException {
+    static int[] getRecordTypes(final LogicalRecord type1Record) throws EbtsParsingException {
 
-        BinaryHeaderImageRecord record = null;
-        if(type7Handling.equals(Type7Handling.NIST)) {
-            record = parseType7AsNist( recordType, bb );
-        }
-        else if(type7Handling.equals(Type7Handling.TREAT_AS_TYPE4)) {
-            record = parseType7AsType4( recordType, bb );
-        }else if(type7Handling.equals(Type7Handling.FLEX )){
-            int pos = bb.position();
-            try{
-                record = parseType7AsType4( recordType, bb );
-            }catch ( EbtsParsingException e ){
-                //TODO: Update the handling so that an ad hoc check is performed 
-                //rather than using parsing exception for flow control
-                // if this fails attempt to do parse as nist
-                bb.position( pos );
-                record = parseType7AsNist( recordType, bb );
-            }
-        }
+        final Field cntField = type1Record.getField(3);
 
-        if (log.isDebugEnabled()) {
-            if(record != null) {
-                for (final Map.Entry<Integer, Field> entry : record.getFields().entrySet()) {
-                    if (entry.getKey() != 9) {
-                        log.debug("Parsed Field: {} Data:{}", entry.getKey(), entry.getValue().toString());
-                    }
-                }
-            }
+        if (cntField == null) {
+            throw new EbtsParsingException("Field 1/CNT not found");
         }
 
-        return record;
-
-    }
-
-    private static BinaryHeaderImageRecord parseType7AsNist( int recordType, ByteBuffer bb ) {
-        final int[] header = new int[]{4,1};
-        int headerLength = 5;
-        BinaryHeaderImageRecord record = new BinaryHeaderImageRecord(recordType, header);
-
-        //No data remains
-        if (bb.capacity() == 0) {
-            return record;
+        final List<Occurrence> idcs = cntField.getOccurrences();
+        if (idcs == null || idcs.isEmpty()) {
+            throw new EbtsParsingException("Unable to parse IDC List in Type 1 Field 3.", 1, 3, -1);
         }
 
-        final byte[] len = new byte[4];
-        bb.get(len);
-        record.setField(1,new Field(convertBinaryFieldData(len),ParseContents.FALSE));
-
-        //Get the idc
-        final byte[] idc = {bb.get()};
-        record.setField(2,new Field(convertBinaryFieldData(idc),ParseContents.FALSE));
-
-        //Examine the mimetype of the remaining data
-        int expectedRemaining = Ints.fromByteArray(len) - headerLength;
-        if(expectedRemaining != bb.remaining()) {
-            log.warn("Unexpected remaining length found in type7 record. Expected: {} Actual: {}", expectedRemaining, bb.remaining());
+        final int[] recordTypes = new int[idcs.size()];
+        for (int i = 0; i < recordTypes.length; i++) {
+            recordTypes[i] = Integer.parseInt(idcs.get(i).getSubFields().get(0).toString());
         }
+        return recordTypes;
+    }
 
-        int remaining = Math.min(expectedRemaining, bb.remaining());
+    /**
+     * Parses a single logical record, using the correct parser based on the type.
+     *
+     * @param recordType the record type
+     * @param bb buffer positioned at the start of the record
+     * @param parseSpec the fields to parse, and how type 7 records are laid out
+     * @param shared whether image data and large fields should remain views of the buffer
+     * @return the logical record, or null if the spec excludes it
+     * @throws EbtsParsingException the ebts parsing exception
+     */
+    static LogicalRecord parseRecord(final int recordType, final ByteBuffer bb, final ParseSpec parseSpec, final boolean shared) throws EbtsParsingException {
 
-        byte[] imageData = new byte[remaining];
-        bb.get(imageData);
-        record.setField(9,new Field(imageData,ParseContents.FALSE));
-        
-        return record;
+        final EbtsTokenizer tokenizer = new EbtsTokenizer(parseSpec.getType7Handling());
+        final LogicalRecordHandler handler = new LogicalRecordHandler(tokenizer, parseSpec, shared);
+        tokenizer.tokenizeRecord(recordType, -1, bb, handler);
+        return handler.getLastRecord();
     }
 
-    private static BinaryHeaderImageRecord parseType7AsType4(final int recordType, final ByteBuffer bb) throws EbtsParsingException {
-        final int[] header = new int[]{4,1,1,6,1,2,2,1};
-        int headerLength = 18;
-        BinaryHeaderImageRecord record = new BinaryHeaderImageRecord(recordType, header);
+    /**
+     * Parses the records and fields of an Ebts file selected by a {@link ParseSpec}.
+     * Only the records that are parsed are read from the file: the others are stepped over using their
+     * LEN field, and reading ends once the spec stops parsing (e.g. after the Type-2 for
+     * {@link ParseType#DESCRIPTIVE_ONLY}).
+     *
+     * @param file File containing the Ebts file to be parsed.
+     * @param parseSpec The records and fields to parse.
+     * @return Ebts instance
+     * @throws EbtsParsingException the ebts parsing exception
+     */
+    public static Ebts parse(final File file, final ParseSpec parseSpec) throws EbtsParsingException {
+        final EbtsTokenizer tokenizer = new EbtsTokenizer(parseSpec.getType7Handling());
+        return parse(file, tokenizer, new LogicalRecordHandler(tokenizer, parseSpec, true), null);
+    }
 
-        //No data remains
-        if (bb.capacity() == 0) {
-            return record;
+    /**
+     * Parses a file a record at a time using positional reads.
+     *
+     * @param buffers the parser whose read buffers are reused for each record, or null to read each
+     *                record into its own buffer. The handler must copy the data if the buffers are reused.
+     */
+    private static Ebts parse(final File file, final EbtsTokenizer tokenizer, final LogicalRecordHandler handler, final EbtsParser buffers)
+            throws EbtsParsingException {
+        try {
+            final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            try {
+                return parse(channel, tokenizer, handler, buffers);
+            } finally {
+                channel.close();
+            }
+        } catch (final IOException e) {
+            throw new EbtsParsingException(e);
         }
-        final byte[] len = new byte[4];
-        bb.get(len);
-        record.setField(1,new Field(convertBinaryFieldData(len),ParseContents.FALSE));
-
-        //Get the idc
-        final byte[] idc = {bb.get()};
-        record.setField(2,new Field(convertBinaryFieldData(idc),ParseContents.FALSE));
-
-        //Get the impression type
-        final byte[] imp = {bb.get()};
-        record.setField(3,new Field(convertBinaryFieldData(imp),ParseContents.FALSE));
-
-        //Get the fingerprint position
-        final byte[] fgp = new byte[6];
-        bb.get(fgp);
-        record.setField(4,new Field(convertBinaryFieldData(fgp),ParseContents.FALSE));
-
-        final byte[] isr = {bb.get()};
-        record.setField(5,new Field(convertBinaryFieldData(isr),ParseContents.FALSE));
-
-        final byte[] hll = new byte[2];
-        bb.get(hll);
-        record.setField(6,new Field(convertBinaryFieldData(hll),ParseContents.FALSE));
-
-        final byte[] vll = new byte[2];
-        bb.get(vll);
-        record.setField(7,new Field(convertBinaryFieldData(vll),ParseContents.FALSE));
-
-        final byte[] alg = {bb.get()};
-        record.setField(8,new Field(convertBinaryFieldData(alg),ParseContents.FALSE));
-
-        final int remainingDataPosition = bb.position();
+    }
 
-        //Examine the mimetype of the remaining data
-        int expectedRemaining = Ints.fromByteArray(len) - headerLength;
-        if(expectedRemaining != bb.remaining()) {
-//            log.warn("Unexpected remaining length found in type7 record. Expected: {} Actual: {}", expectedRemaining, bb.remaining());
+    public static Ebts parse(final File file, final ParseType parseType, final Type7Handling type7Handling) throws EbtsParsingException {
+        if (parseType.equals(ParseType.FULL)) {
+            try {
+                return parse(Files.toByteArray(file), parseType, type7Handling);
+            } catch (final IOException e) {
+                throw new EbtsParsingException(e);
+            }
         }
+        return parse(file, ParseSpec.of(parseType, type7Handling));
+    }
 
-        int remaining = Math.min(expectedRemaining, bb.remaining());
-        byte[] imageData = new byte[remaining];
-        bb.get(imageData);
-        final String ext = EbtsUtils.getMimeExtension(imageData);
+    private static Ebts parse(final FileChannel channel, final EbtsTokenizer tokenizer, final LogicalRecordHandler handler, final EbtsParser buffers)
+            throws IOException, EbtsParsingException {
 
-        if (IMAGE_MIME_EXTENSIONS.contains(ext)) {
-            log.debug("Found mime-type ext of remaining data to be: {}",ext);
-            record.setField(9,new Field(imageData,ParseContents.FALSE));
-        } else {
-            log.debug("Ignoring mime-type ext of {} and searching for mimetype based on CGA",ext);
-            bb.position(remainingDataPosition);
-
-            //TODO: Add Length Checks
-            //If CGA is provided, we hunt for the header as it may not be at the beginning of the remaining data (Thanks CBEFF)
-            if (alg[0] != Byte.valueOf("0")) {
-                int imageLocation = -1;
-                if (alg[0] == Byte.valueOf("1")) {
-                    imageLocation = ImageUtils.getWsqImagePosition(bb);
-                    log.debug("Found WSQ at byte:{}",imageLocation);
-
-                } else if (alg[0] == Byte.valueOf("2")) {
-                    imageLocation = ImageUtils.getJpgImagePosition(bb);
-                    log.debug("Found WSQ at byte:{}",imageLocation);
-
-                } else if (alg[0] == Byte.valueOf("4") || alg[0] == Byte.valueOf("5")) {
-                    imageLocation = ImageUtils.getJp2ImagePosition(bb);
-                    log.debug("Found JP2 at byte:{}",imageLocation);
-                }
-                //PNG
-                else if (alg[0] == Byte.valueOf("6")) {
-                    imageLocation = ImageUtils.getPngImagePosition(bb);
-                    log.debug("Found PNG at byte:{}",imageLocation);
-                }
-
-                if (imageLocation != -1) {
-                    bb.position(imageLocation);
-                    imageData = new byte[Ints.fromByteArray(len)-imageLocation];
-                    bb.get(imageData);
-                    record.setField(9,new Field(imageData,ParseContents.FALSE));
+        final long size = channel.size();
+        final ParseSpec parseSpec = handler.getParseSpec();
+        try {
+            long offset = tokenizer.tokenizeType1(readRecord(channel, 1, 0, size, true, buffers), handler);
+
+            final int[] recordTypes = tokenizer.getRecordTypes();
+            final int[] recordIdcs = tokenizer.getRecordIdcs();
+            for (int i = 0; i < recordTypes.length && !tokenizer.isStopped(); i++) {
+                final int recordType = recordTypes[i];
+
+                //Skip Type 1
+                if (recordType != 1) {
+                    final ByteBuffer record = readRecord(channel, recordType, offset, size, parseSpec.includesRecord(recordType), buffers);
+                    final int length = tokenizer.tokenizeRecord(recordType, recordIdcs[i], record, handler);
+                    if (length <= 0) {
+                        throw new EbtsParsingException("Error parsing record. Empty record?", recordType, -1, -1);
+                    }
+                    offset += length;
                 }
-            } else {
-                throw new EbtsParsingException("Unable to parse type 7 as type 4. Unexpected value in alg field.");
             }
         }
-        return record;
+        catch(final RuntimeException e) {
+            throw new EbtsParsingException("Unhandled Parsing Exception",e);
+        }
+        return handler.getEbts();
     }
 
-    /*
-     * Parser for records containing binary header data
-     */
     /**
-     * Type3456 parser.
+     * Reads a record from a file, using its LEN field to bound the read.
      *
+     * @param channel the file
      * @param recordType the record type
-     * @param bb the bb
-     * @return the logical record
+     * @param offset the position of the record in the file
+     * @param size the size of the file
+     * @param full whether to read the whole record, or only enough to find its length
+     * @param buffers the parser whose read buffers are reused, or null to allocate new ones
+     * @return buffer holding the record, or its start. A record extending past the end of the file is cut short.
      */
-    private static LogicalRecord parseType3456(final int recordType, final ByteBuffer bb) throws EbtsParsingException {
-
-        return parseBinaryHeaderRecord(recordType, null, bb);
-    }
-
-    private static LogicalRecord parseBinaryHeaderRecord(final int recordType, final int[] headerFormat, final ByteBuffer bb)
-            throws EbtsParsingException {
+    private static ByteBuffer readRecord(final FileChannel channel, final int recordType, final long offset, final long size, final boolean full,
+                                         final EbtsParser buffers) throws IOException, EbtsParsingException {
 
-        final BinaryHeaderImageRecord record;
-        if (headerFormat != null && headerFormat.length > 0) {
-            record = new BinaryHeaderImageRecord(recordType,headerFormat);
+        final int prefixLength = (int) Math.max(0, Math.min(RecordFraming.MAX_LENGTH_PREFIX, size - offset));
+        final ByteBuffer prefix;
+        if (buffers == null) {
+            prefix = ByteBuffer.allocate(prefixLength);
         } else {
-            record = new BinaryHeaderImageRecord(recordType);
+            prefix = buffers.prefixBuffer;
+            prefix.clear().limit(prefixLength);
         }
+        readFully(channel, prefix, offset);
+        prefix.flip();
 
-        //No data remains
-        if (bb.capacity() == 0) {
-            return record;
+        final int length = RecordFraming.recordLength(recordType, prefix);
+        if (length == -1) {
+            throw new EbtsParsingException("Unexpected end of data reading record length", recordType, 1, -1);
         }
-
-        final int[] format = record.getHeaderFormat();
-
-        //iterate through the header format array, and grab bytes in segments as specified by the lengths stored in the
-        //header format array
-        int headerPosition;
-        for (headerPosition = 1; headerPosition <= format.length; headerPosition++) {
-            final int headerItemLength = format[headerPosition-1];
-            final byte[] headerItem = new byte[headerItemLength];
-            bb.get(headerItem);
-            record.setField(headerPosition,new Field(convertBinaryFieldData(headerItem),ParseContents.FALSE));
+        if (!full || length <= prefix.remaining()) {
+            return prefix;
         }
 
-        final Field lenField = record.getField(1);
-
-        if (lenField == null) {
-            throw new EbtsParsingException(String.format("Field %d/LEN not found", record.getRecordType()));
+        final int recordLength = (int) Math.min(length, size - offset);
+        final ByteBuffer record;
+        if (buffers == null) {
+            record = ByteBuffer.allocate(recordLength);
+        } else {
+            if (buffers.recordBuffer.capacity() < recordLength) {
+                buffers.recordBuffer = ByteBuffer.allocate(Math.max(recordLength, buffers.recordBuffer.capacity() * 2));
+            }
+            record = buffers.recordBuffer;
+            record.clear().limit(recordLength);
         }
+        record.put(prefix);
+        readFully(channel, record, offset + record.position());
+        record.flip();
+        return record;
+    }
 
-        final byte[] imageData = new byte[Integer.valueOf(lenField.toString())-record.getHeaderLength()];
-        bb.get(imageData);
-        record.setField(headerPosition,new Field(imageData,ParseContents.FALSE));
-        
-        if (log.isDebugEnabled()) {
-            for (final Map.Entry<Integer,Field> entry : record.getFields().entrySet()) {
-                if (entry.getKey() != headerPosition) {
-                    log.debug("Parsed Field: {} Data:{}",entry.getKey(),entry.getValue().toString());
-                } else {
-                    log.debug("Parsed Field: {} Data:{}",entry.getKey(),"<Image Data>");
-                }
+    private static void readFully(final FileChannel channel, final ByteBuffer dst, final long position) throws IOException {
+        long readPosition = position;
+        while (dst.hasRemaining()) {
+            final int read = channel.read(dst, readPosition);
+            if (read == -1) {
+                throw new EOFException();
             }
+            readPosition += read;
         }
-
-        return record;
     }
 
-    /*
-     * Parser for records containing binary header data
-     */
     /**
-     * Type8 parser.
+     * Parses an Ebts file.
      *
-     * @param recordType the record type
-     * @param bb the bb
-     * @return the logical record
-     */
-    private static LogicalRecord parseType8(final int recordType, final ByteBuffer bb) throws EbtsParsingException {
+     * @param file File containing the Ebts file to be parsed.
+     * @return Ebts instance
+     * @throws EbtsParsingException the exception
+         */
+    public static Ebts parse(final File file, final ParseType parseType) throws EbtsParsingException {
+        return parse(file, parseType, Type7Handling.TREAT_AS_TYPE4);
+    }
 
-        final int[] headerFormat = new int[]{4,1,1,1,1,2,2};
-        return parseBinaryHeaderRecord(recordType, headerFormat, bb);
+    public static Ebts parse(final File file) throws EbtsParsingException{
+        return parse(file,ParseType.FULL);
     }
 
     /**
-     * Convert binary field data.
+     * Parses an Ebts file.
      *
-     * @param data the data
-     * @return the byte[]
+     * @param filePath File path containing the Ebts file to be parsed.
+     * @return Ebts instance
+     * @throws EbtsParsingException the exception
      */
-    private static byte[] convertBinaryFieldData(final byte[] data) {
-
-        if (data.length == 1 || data.length == 2 || data.length == 4) {
-            return String.valueOf(EbtsUtils.byteArrayToInt(data)).getBytes();
-        } else if (data.length == 6) {
-            return String.valueOf((int) data[0]).getBytes();
-        } else {
-            return data;
-        }
+    @Deprecated
+    public static Ebts parse(final String filePath, final ParseType parseType) throws EbtsParsingException {
+        final File file = new File(filePath);
+        return parse(file, parseType);
     }
-
 }
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2014 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mitre.jet.ebts;
+
+import org.mitre.jet.ebts.records.LogicalRecord;
+import org.mitre.jet.exceptions.EbtsParsingException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>
+ *     Parses an Ebts file that arrives in chunks, without blocking. Each chunk is passed to {@link #feed(ByteBuffer)},
+ *     which returns the records completed by it; partial LEN fields and partial records are kept until the
+ *     following chunks complete them. This suits a non-blocking server, where one thread can parse many
+ *     transactions as their data arrives:
+ * </p>
+ * <pre>
+ *     channel.read(buffer);
+ *     buffer.flip();
+ *     for (LogicalRecord record : parser.feed(buffer)) {
+ *         ...
+ *     }
+ *     buffer.compact();
+ * </pre>
+ * <p>
+ *     Records are returned in file order, starting with the Type-1. Records excluded by the {@link ParseSpec}
+ *     are discarded as they arrive rather than being buffered. An instance parses a single file and is not
+ *     thread-safe; after an exception it should be discarded.
+ * </p>
+ */
+public class EbtsPushParser {
+
+    private static final Logger log = LoggerFactory.getLogger(EbtsPushParser.class);
+
+    private final ParseSpec parseSpec;
+    private final EbtsTokenizer tokenizer;
+
+    /** Bytes received that have not yet been assigned to a record. Always in read mode. */
+    private final ByteBuffer lookahead = ByteBuffer.allocate(RecordFraming.MAX_LENGTH_PREFIX);
+
+    private int[] recordTypes;
+    private int nextRecord;
+    private boolean complete;
+
+    /** The record being received, or null if it is being skipped or its length is not yet known. */
+    private ByteBuffer recordData;
+    /** The length of the record being received, from its LEN field. */
+    private int recordLength;
+    /** Bytes still to be discarded from a skipped record. */
+    private int skipRemaining;
+
+    public EbtsPushParser() {
+        this(ParseSpec.builder().build());
+    }
+
+    /**
+     * Create a push parser.
+     *
+     * @param parseSpec the records and fields to parse
+     */
+    public EbtsPushParser(final ParseSpec parseSpec) {
+        this.parseSpec = parseSpec;
+        this.tokenizer = new EbtsTokenizer(parseSpec.getType7Handling());
+        this.lookahead.flip();
+    }
+
+    /**
+     * Consumes the next chunk of the file.
+     *
+     * @param chunk the data, from its position to its limit. The position is moved past the data consumed,
+     *              which is all of it unless the file is complete.
+     * @return the records completed by this chunk, in file order
+     * @throws EbtsParsingException if the data is malformed
+     */
+    public List<LogicalRecord> feed(final ByteBuffer chunk) throws EbtsParsingException {
+
+        List<LogicalRecord> records = Collections.emptyList();
+
+        while (!complete) {
+            final int recordType = currentRecordType();
+
+            if (recordData == null && skipRemaining == 0) {
+                //Waiting for the LEN field of the next record
+                final int length = RecordFraming.recordLength(recordType, lookahead);
+                if (length == -1) {
+                    if (!chunk.hasRemaining()) {
+                        break;
+                    }
+                    lookahead.compact();
+                    transfer(chunk, lookahead);
+                    lookahead.flip();
+                    continue;
+                }
+                if (length <= 0) {
+                    throw new EbtsParsingException("Error parsing record. Empty record?", recordType, -1, -1);
+                }
+                startRecord(recordType, length);
+            } else if (recordData != null) {
+                if (recordData.position() < recordLength) {
+                    if (!chunk.hasRemaining()) {
+                        break;
+                    }
+                    recordData = RecordFraming.ensureRemaining(recordData, recordLength);
+                    transfer(chunk, recordData);
+                }
+                if (recordData.position() == recordLength) {
+                    final LogicalRecord record = endRecord(recordType);
+                    if (record != null) {
+                        if (records.isEmpty()) {
+                            records = new ArrayList<LogicalRecord>();
+                        }
+                        records.add(record);
+                    }
+                }
+            } else {
+                if (!chunk.hasRemaining()) {
+                    break;
+                }
+                final int skipped = Math.min(skipRemaining, chunk.remaining());
+                chunk.position(chunk.position() + skipped);
+                skipRemaining -= skipped;
+                if (skipRemaining == 0) {
+                    nextRecord(recordType);
+                }
+            }
+        }
+
+        return records;
+    }
+
+    /**
+     * Whether every record listed in the 1.003 CNT field has been received.
+     *
+     * @return true if the file is complete
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Signals that no more data will arrive.
+     *
+     * @throws EbtsParsingException if the file is incomplete
+     */
+    public void finish() throws EbtsParsingException {
+        if (!complete) {
+            throw new EbtsParsingException("Unexpected end of data. Record length incorrect?", currentRecordType(), -1, -1);
+        }
+    }
+
+    private int currentRecordType() {
+        return recordTypes == null ? 1 : recordTypes[nextRecord];
+    }
+
+    /**
+     * Begins receiving a record, first taking any of its bytes already in the lookahead. The record's buffer
+     * grows as its data arrives rather than being allocated at the length its LEN field claims.
+     */
+    private void startRecord(final int recordType, final int length) throws EbtsParsingException {
+
+        log.debug("Receiving type {} record of {} bytes", recordType, length);
+        final int carried = Math.min(length, lookahead.remaining());
+
+        if (recordType == 1 || parseSpec.includesRecord(recordType)) {
+            RecordFraming.checkLength(recordType, length, parseSpec);
+            recordLength = length;
+            recordData = RecordFraming.recordBuffer(length);
+            transfer(lookahead, recordData);
+        } else {
+            lookahead.position(lookahead.position() + carried);
+            skipRemaining = length - carried;
+            if (skipRemaining == 0) {
+                nextRecord(recordType);
+            }
+        }
+    }
+
+    /**
+     * Parses a fully received record.
+     *
+     * @return the record, or null if it was excluded
+     */
+    private LogicalRecord endRecord(final int recordType) throws EbtsParsingException {
+
+        recordData.flip();
+        final LogicalRecordHandler handler = new LogicalRecordHandler(tokenizer, parseSpec, true);
+        try {
+            if (recordTypes == null) {
+                tokenizer.tokenizeType1(recordData, handler);
+                recordTypes = tokenizer.getRecordTypes();
+            } else {
+                tokenizer.tokenizeRecord(recordType, tokenizer.getRecordIdcs()[nextRecord], recordData, handler);
+            }
+        } catch (final RuntimeException e) {
+            throw new EbtsParsingException("Unhandled Parsing Exception", e);
+        }
+        recordData = null;
+
+        nextRecord(recordType);
+        return handler.getLastRecord();
+    }
+
+    private void nextRecord(final int recordType) {
+
+        nextRecord++;
+        //Skip the Type 1 entry of the CNT field, it has already been read
+        if (nextRecord < recordTypes.length && recordTypes[nextRecord] == 1) {
+            nextRecord++;
+        }
+        complete = nextRecord >= recordTypes.length || parseSpec.stopsAfter(recordType);
+    }
+
+    /**
+     * Copies as much of the source as fits into the destination.
+     */
+    private static void transfer(final ByteBuffer source, final ByteBuffer destination) {
+
+        final int count = Math.min(source.remaining(), destination.remaining());
+        final ByteBuffer part = source.duplicate();
+        part.limit(part.position() + count);
+        destination.put(part);
+        source.position(source.position() + count);
+    }
+}
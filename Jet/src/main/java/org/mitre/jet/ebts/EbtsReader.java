@@ -0,0 +1,202 @@
+/*
+ * Copyright 2014 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mitre.jet.ebts;
+
+import org.mitre.jet.ebts.records.LogicalRecord;
+import org.mitre.jet.exceptions.EbtsParsingException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.NoSuchElementException;
+
+/**
+ * <p>
+ *     Reads an Ebts file from a stream one {@link LogicalRecord} at a time. Each record is read using the
+ *     length from its LEN field, so at most one record is held in memory and a record can be processed
+ *     before the rest of the file has arrived.
+ * </p>
+ * <p>
+ *     The first record returned is always the Type-1; the remaining records follow in the order listed
+ *     in its 1.003 CNT field.
+ * </p>
+ */
+public class EbtsReader implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(EbtsReader.class);
+
+    private final ReadableByteChannel channel;
+    private final ParseSpec parseSpec;
+
+    /** Bytes read past the LEN field of a record that have not yet been handed to a record. */
+    private final ByteBuffer lookahead = ByteBuffer.allocate(RecordFraming.MAX_LENGTH_PREFIX);
+
+    private int[] recordTypes;
+    private int nextRecord;
+
+    /**
+     * Create a reader over a stream.
+     *
+     * @param inputStream the stream containing the Ebts file
+     */
+    public EbtsReader(final InputStream inputStream) {
+        this(Channels.newChannel(inputStream), Type7Handling.TREAT_AS_TYPE4);
+    }
+
+    /**
+     * Create a reader over a stream.
+     *
+     * @param inputStream the stream containing the Ebts file
+     * @param type7Handling how type 7 records are laid out
+     */
+    public EbtsReader(final InputStream inputStream, final Type7Handling type7Handling) {
+        this(Channels.newChannel(inputStream), type7Handling);
+    }
+
+    /**
+     * Create a reader over a channel.
+     *
+     * @param channel the channel containing the Ebts file
+     */
+    public EbtsReader(final ReadableByteChannel channel) {
+        this(channel, Type7Handling.TREAT_AS_TYPE4);
+    }
+
+    /**
+     * Create a reader over a channel.
+     *
+     * @param channel the channel containing the Ebts file
+     * @param type7Handling how type 7 records are laid out
+     */
+    public EbtsReader(final ReadableByteChannel channel, final Type7Handling type7Handling) {
+        this.channel = channel;
+        this.parseSpec = ParseSpec.of(ParseType.FULL, type7Handling);
+        this.lookahead.flip();
+    }
+
+    /**
+     * Create a reader over a channel that rejects records longer than a limit, e.g. for untrusted uploads.
+     * See {@link ParseSpec.Builder#maxRecordLength(int)}.
+     *
+     * @param channel the channel containing the Ebts file
+     * @param type7Handling how type 7 records are laid out
+     * @param maxRecordLength the longest record, in bytes
+     */
+    public EbtsReader(final ReadableByteChannel channel, final Type7Handling type7Handling, final int maxRecordLength) {
+        this.channel = channel;
+        this.parseSpec = ParseSpec.builder().type7Handling(type7Handling).maxRecordLength(maxRecordLength).build();
+        this.lookahead.flip();
+    }
+
+    /**
+     * Returns whether another record remains to be read.
+     *
+     * @return true if {@link #next()} will return a record
+     */
+    public boolean hasNext() {
+        return recordTypes == null || nextRecord < recordTypes.length;
+    }
+
+    /**
+     * Reads and parses the next record.
+     *
+     * @return the next logical record
+     * @throws IOException if the underlying stream cannot be read
+     * @throws EbtsParsingException if the record is malformed or the stream ends part way through it
+     */
+    public LogicalRecord next() throws IOException, EbtsParsingException {
+
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        final int recordType = recordTypes == null ? 1 : recordTypes[nextRecord];
+        final ByteBuffer recordData = readRecord(recordType);
+
+        final LogicalRecord record;
+        try {
+            record = EbtsParser.parseRecord(recordType, recordData, parseSpec, true);
+
+            if (recordTypes == null) {
+                recordTypes = EbtsParser.getRecordTypes(record);
+            }
+        } catch (final RuntimeException e) {
+            throw new EbtsParsingException("Unhandled Parsing Exception", e);
+        }
+
+        nextRecord++;
+        //Skip the Type 1 entry of the CNT field, it has already been read
+        if (nextRecord < recordTypes.length && recordTypes[nextRecord] == 1) {
+            nextRecord++;
+        }
+        return record;
+    }
+
+    /**
+     * Reads the bytes of the next record, using its LEN field to bound the read.
+     *
+     * @param recordType the record type
+     * @return buffer holding exactly the record
+     */
+    private ByteBuffer readRecord(final int recordType) throws IOException, EbtsParsingException {
+
+        int length = RecordFraming.recordLength(recordType, lookahead);
+        while (length == -1) {
+            lookahead.compact();
+            final int read = channel.read(lookahead);
+            lookahead.flip();
+            if (read == -1) {
+                throw new EbtsParsingException("Unexpected end of data reading record length", recordType, 1, -1);
+            }
+            length = RecordFraming.recordLength(recordType, lookahead);
+        }
+
+        if (length <= 0) {
+            throw new EbtsParsingException("Error parsing record. Empty record?", recordType, -1, -1);
+        }
+        RecordFraming.checkLength(recordType, length, parseSpec);
+        log.debug("Reading type {} record of {} bytes", recordType, length);
+
+        ByteBuffer recordData = RecordFraming.recordBuffer(length);
+
+        //Hand over what has already been read, leaving anything past the record for the next one
+        final ByteBuffer carried = lookahead.duplicate();
+        carried.limit(carried.position() + Math.min(length, carried.remaining()));
+        recordData.put(carried);
+        lookahead.position(carried.position());
+
+        while (recordData.position() < length) {
+            recordData = RecordFraming.ensureRemaining(recordData, length);
+            if (channel.read(recordData) == -1) {
+                throw new EbtsParsingException("Unexpected end of data. Record length incorrect?", recordType, -1, -1);
+            }
+        }
+
+        recordData.flip();
+        return recordData;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,786 @@
+/*
+ * Copyright 2014 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mitre.jet.ebts;
+
+import org.mitre.jet.common.ByteBufferUtils;
+import org.mitre.jet.ebts.field.SeparatorIndex;
+import org.mitre.jet.exceptions.EbtsParsingException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Splits Ebts data into records, fields and image data and reports them to an {@link EbtsHandler}.
+ * Both the tree ({@link Ebts}) and the event APIs of {@link EbtsParser} are driven by this class.
+ *
+ * @author ADAY
+ */
+final class EbtsTokenizer {
+
+    private static final Logger log = LoggerFactory.getLogger(EbtsTokenizer.class);
+    private static final Set<Integer> BINARY_HEADER_RECORD_TYPES = EbtsUtils.getBinaryHeaderTypes();
+    private static final Set<Integer> GENERIC_RECORD_TYPES = EbtsUtils.getGenericRecordTypes();
+
+    private static final byte COLON = 0x3a;
+
+    /** Shortest and longest field tags accepted before the colon (e.g. 1.2 to 10.001). */
+    private static final int MIN_TAG_LENGTH = 3;
+    private static final int MAX_TAG_LENGTH = 10;
+    private static final int MAX_NUMBER_DIGITS = 9;
+
+    private static final int[] TYPE3456_HEADER = new int[]{4,1,1,6,1,2,2,1};
+    private static final int[] TYPE7_NIST_HEADER = new int[]{4,1};
+    private static final int[] TYPE8_HEADER = new int[]{4,1,1,1,1,2,2};
+
+    /** Type 7 records always store their image data in field 9, whatever the header layout. */
+    private static final int TYPE7_IMAGE_FIELD = 9;
+
+    /** Discards all events. Used to read the Type-1 when only its CNT field is wanted. */
+    static final EbtsHandler IGNORE = new EbtsHandler() {
+        @Override
+        public boolean startRecord(final int recordType, final int idc) {
+            return true;
+        }
+
+        @Override
+        public void field(final int fieldNumber, final ByteBuffer value) {}
+
+        @Override
+        public void imageData(final int fieldNumber, final ByteBuffer data) {}
+
+        @Override
+        public boolean endRecord(final int recordType) {
+            return true;
+        }
+    };
+
+    private final Type7Handling type7Handling;
+
+    /** Holds the text form of binary header values handed to the handler. */
+    private final byte[] headerDigits = new byte[11];
+    private final ByteBuffer headerValue = ByteBuffer.wrap(headerDigits).asReadOnlyBuffer();
+
+    /** The record and field number of the last field tag read (e.g. {2, 18} for 2.018). */
+    private final int[] tag = new int[2];
+
+    /** The separators of the generic record currently being tokenized. */
+    private SeparatorIndex separatorIndex;
+    /** Whether the index has been handed out, in which case it is not reused for the next record. */
+    private boolean separatorIndexRetained;
+    /** The record currently being tokenized, positioned at the field being read. */
+    private ByteBuffer currentRecord;
+    private int[] headerFormat;
+    private int[] recordTypes;
+    private int[] recordIdcs;
+    private boolean stopped;
+
+    EbtsTokenizer(final Type7Handling type7Handling) {
+        this.type7Handling = type7Handling;
+    }
+
+    /**
+     * Tokenizes a complete Ebts file: the Type-1 followed by each record listed in its 1.003 CNT field.
+     *
+     * @param bb buffer positioned at the start of the Type-1, which is moved past the data that was read
+     * @param handler the handler
+     * @throws EbtsParsingException the ebts parsing exception
+     */
+    void tokenize(final ByteBuffer bb, final EbtsHandler handler) throws EbtsParsingException {
+        tokenize(bb, handler, null);
+    }
+
+    /**
+     * Tokenizes a complete Ebts file, optionally recovering from errors in the records following the Type-1.
+     * A record that cannot be tokenized is reported to the diagnostics and abandoned without
+     * {@link EbtsHandler#endRecord(int)} being called, and tokenizing resumes at the end of the record given by
+     * its LEN field or, failing that, after the next FS separator. Errors in the Type-1 are always thrown.
+     *
+     * @param bb buffer positioned at the start of the Type-1, which is moved past the data that was read
+     * @param handler the handler
+     * @param diagnostics receives the errors, or null to throw the first error
+     * @throws EbtsParsingException the ebts parsing exception
+     */
+    void tokenize(final ByteBuffer bb, final EbtsHandler handler, final List<ParseResult.Diagnostic> diagnostics) throws EbtsParsingException {
+
+        final int start = bb.position();
+        bb.position(bb.position() + tokenizeType1(bb, handler));
+
+        //Get all of the records from the IDC list in 1.03
+        for (int i = 0; i < recordTypes.length && !stopped; i++) {
+            final int recordType = recordTypes[i];
+
+            //Skip Type 1
+            if (recordType != 1) {
+                int length;
+                try {
+                    length = tokenizeRecord(recordType, recordIdcs[i], bb, handler);
+                    if (length <= 0) {
+                        throw new EbtsParsingException("Error parsing record. Empty record?", recordType, -1, -1);
+                    }
+                } catch (final EbtsParsingException e) {
+                    if (diagnostics == null) {
+                        throw e;
+                    }
+                    length = recover(recordType, recordIdcs[i], bb, bb.position() - start, e, diagnostics);
+                } catch (final RuntimeException e) {
+                    if (diagnostics == null) {
+                        throw e;
+                    }
+                    length = recover(recordType, recordIdcs[i], bb, bb.position() - start,
+                            new EbtsParsingException("Unhandled Parsing Exception", e), diagnostics);
+                }
+
+                //Update the position of the byte buffer to be past the parsed data
+                if (length <= 0) {
+                    return;
+                }
+                bb.position(bb.position() + length);
+            }
+        }
+    }
+
+    /**
+     * Records an error in a record and finds where the next record starts.
+     *
+     * @param bb buffer positioned at the start of the record
+     * @param offset the offset of the record in the file
+     * @return the length to skip, or -1 if the end of the record cannot be found
+     */
+    private int recover(final int recordType, final int idc, final ByteBuffer bb, final int offset, final EbtsParsingException e,
+                        final List<ParseResult.Diagnostic> diagnostics) {
+
+        final int errorPosition = currentRecord != null ? currentRecord.position() : 0;
+        log.warn("Skipping type {} record at offset {}: {}", recordType, offset + errorPosition, e.getMessage());
+        diagnostics.add(new ParseResult.Diagnostic(recordType, idc, offset + errorPosition, e));
+
+        final ByteBuffer record = bb.slice();
+        int length;
+        try {
+            length = RecordFraming.recordLength(recordType, record);
+        } catch (final EbtsParsingException lengthError) {
+            length = -1;
+        }
+        final boolean generic = GENERIC_RECORD_TYPES.contains(recordType);
+
+        //Trust the LEN if it stays within the data and, for tagged records, ends with an FS
+        if (length > 0 && length <= record.limit()
+                && (!generic || record.get(length - 1) == EbtsConstants.SEPARATOR_FILE)) {
+            return length;
+        }
+        if (generic) {
+            int separator = ByteBufferUtils.findSeparator(record, errorPosition, record.limit());
+            while (separator != -1 && record.get(separator) != EbtsConstants.SEPARATOR_FILE) {
+                separator = ByteBufferUtils.findSeparator(record, separator + 1, record.limit());
+            }
+            if (separator != -1) {
+                return separator + 1;
+            }
+        }
+        log.warn("Unable to find the end of the type {} record at offset {}, stopping", recordType, offset);
+        return -1;
+    }
+
+    /**
+     * Tokenizes the Type-1 and reads the records listed in its 1.003 CNT field,
+     * which are then available from {@link #getRecordTypes()} and {@link #getRecordIdcs()}.
+     *
+     * @param bb buffer positioned at the start of the Type-1, which is not moved
+     * @param handler the handler
+     * @return the length of the Type-1
+     * @throws EbtsParsingException if the Type-1 or its CNT field cannot be read
+     */
+    int tokenizeType1(final ByteBuffer bb, final EbtsHandler handler) throws EbtsParsingException {
+
+        log.debug("Parsing Record Type: 1");
+        recordTypes = null;
+        final int type1Length = tokenizeRecord(1, -1, bb, handler);
+
+        if (type1Length <= 0) {
+            throw new EbtsParsingException("Error Parsing Type 1. No data was parsed.", 1, -1, -1);
+        }
+        if (recordTypes == null) {
+            throw new EbtsParsingException("Field 1/CNT not found");
+        }
+        if (recordTypes.length == 0) {
+            throw new EbtsParsingException("Unable to parse IDC List in Type 1 Field 3.", 1, 3, -1);
+        }
+
+        return type1Length;
+    }
+
+    /**
+     * Tokenizes a single logical record.
+     *
+     * @param recordType the record type
+     * @param idc the IDC listed for the record in the CNT field, or -1 if unknown
+     * @param bb buffer positioned at the start of the record, which is not moved
+     * @param handler the handler
+     * @return the length of the record according to its LEN field, or -1 if it could not be determined
+     * @throws EbtsParsingException the ebts parsing exception
+     */
+    int tokenizeRecord(final int recordType, final int idc, final ByteBuffer bb, final EbtsHandler handler) throws EbtsParsingException {
+
+        currentRecord = null;
+        if (!GENERIC_RECORD_TYPES.contains(recordType) && !BINARY_HEADER_RECORD_TYPES.contains(recordType)) {
+            throw new EbtsParsingException("File contains unsupported record type", recordType, -1, -1);
+        }
+
+        log.debug("Parsing type: {}", recordType);
+        final ByteBuffer record = bb.slice();
+        currentRecord = record;
+        final int length;
+        if (!handler.startRecord(recordType, idc)) {
+            //The Type-1 is still read, as the CNT field is needed to find the records that follow it
+            length = recordType == 1 ? tokenizeGenericRecord(1, record, IGNORE) : RecordFraming.recordLength(recordType, record);
+        } else if (GENERIC_RECORD_TYPES.contains(recordType)) {
+            length = tokenizeGenericRecord(recordType, record, handler);
+        } else if (recordType == 7) {
+            length = tokenizeType7(record, handler);
+        } else if (recordType == 8) {
+            length = tokenizeBinaryHeaderRecord(TYPE8_HEADER, record, handler);
+        } else {
+            length = tokenizeBinaryHeaderRecord(TYPE3456_HEADER, record, handler);
+        }
+        stopped = !handler.endRecord(recordType);
+
+        return length;
+    }
+
+    /**
+     * Whether the handler asked to stop at the end of the last record tokenized.
+     *
+     * @return true if no further records should be tokenized
+     */
+    boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Returns the record types listed in the 1.003 CNT field of the last Type-1 tokenized.
+     *
+     * @return the record types, in file order. The first entry is the Type-1 itself.
+     */
+    int[] getRecordTypes() {
+        return recordTypes;
+    }
+
+    /**
+     * Returns the IDCs listed in the 1.003 CNT field of the last Type-1 tokenized.
+     *
+     * @return the IDCs, in the same order as {@link #getRecordTypes()}, or -1 where none was given.
+     * The entry for the Type-1 holds the record count rather than an IDC.
+     */
+    int[] getRecordIdcs() {
+        return recordIdcs;
+    }
+
+    /**
+     * Returns the header layout of the binary header record currently being tokenized.
+     *
+     * @return the header format (e.g. {4,1,1,6,1,2,2,1} for a Type-4)
+     */
+    int[] getHeaderFormat() {
+        return headerFormat;
+    }
+
+    /**
+     * Returns the separator positions of the generic record currently being tokenized, relative to its start.
+     * Fields handed to the handler can keep it to split themselves into occurrences and subfields
+     * without scanning their data again. An index that has been handed out is not reused for later records.
+     *
+     * @return the separator index
+     */
+    SeparatorIndex getSeparatorIndex() {
+        separatorIndexRetained = true;
+        return separatorIndex;
+    }
+
+    /*
+     * Tokenizer for record types that contain text fields and optionally image data
+     * e.g. Type 1,2,10,14,etc
+     */
+    private int tokenizeGenericRecord(final int type, final ByteBuffer bb, final EbtsHandler handler) throws EbtsParsingException {
+
+        if (bb.capacity() == 0) { //byte buffer doesn't contain data
+            return -1;
+        }
+
+        final ByteBuffer value = bb.asReadOnlyBuffer();
+        if (separatorIndex == null || separatorIndexRetained) {
+            separatorIndex = new SeparatorIndex(bb);
+            separatorIndexRetained = false;
+        } else {
+            separatorIndex.reset(bb);
+        }
+        boolean hasLength = false;
+        int length = -1;
+        int idc = -1;
+
+        boolean endOfRecord = false;
+        while (bb.hasRemaining() && !endOfRecord) {
+
+            if (!readTag(bb)) {
+                throw new EbtsParsingException("Error parsing record. Invalid field tag.",type,-1,idc);
+            }
+            final int fieldNumber = tag[1];
+
+            //Perform this check if its a .999 (image data) and not type 1/2
+            //Must check for type 1,2 as 2.999 is a user defined field
+            int fieldEnd = -1;
+            if (fieldNumber != 999 || type == 1 || type == 2) {
+                fieldEnd = findFieldEnd(bb, bb.position());
+
+                //Verify that the next GS doesn't exceed record length
+                //If it does, we've jumped into the next record
+                if (fieldEnd != -1) {
+                    final boolean fileSeparator = bb.get(fieldEnd) == EbtsConstants.SEPARATOR_FILE;
+                    if (hasLength) {
+                        if (fileSeparator || fieldEnd >= length) {
+                            fieldEnd = fileSeparator ? fieldEnd : findFileSeparator(bb, fieldEnd);
+                            endOfRecord = true;
+                        }
+                    } else if (fileSeparator) {
+                        throw new EbtsParsingException("Error parsing record",type,-1,-1);
+                    }
+                }
+            }
+
+            if (fieldEnd != -1) {
+
+                view(value, bb.position(), fieldEnd);
+
+                if (fieldNumber == 1) {
+                    hasLength = true;
+                    length = parseNumber(value);
+                } else if (fieldNumber == 2) {
+                    idc = parseNumber(value);
+                } else if (fieldNumber == 3 && type == 1) {
+                    parseContentField(value);
+                }
+
+                handler.field(fieldNumber, value);
+
+                bb.position(fieldEnd+1);
+            } else {
+                //The remaining data is image data
+                //Verify that the recordLength exists and that the remaining data is > 0
+                final int readLength = length-bb.position()-1;
+                if (length != -1 && readLength >= 0 && bb.remaining() >= readLength) {
+
+                    handler.imageData(999, view(value, bb.position(), bb.position()+readLength));
+                    bb.position(bb.position()+readLength);
+                    endOfRecord = true;
+                } else {
+                    throw new EbtsParsingException("Error parsing end of record. Record:"+type+". IDC:"+idc+". Record length incorrect?",type,idc,-1);
+                }
+            }
+        }
+        separatorIndex.detach();
+
+        return hasLength ? length : -1;
+    }
+
+    /**
+     * Finds the GS or FS ending the field that starts at the given index, passing over any RS/US separators in it.
+     *
+     * @return the index of the separator, or -1 if there is none
+     */
+    private int findFieldEnd(final ByteBuffer bb, final int start) {
+
+        int separator = separatorIndex.next(start, bb.limit());
+        while (separator != -1) {
+            final byte b = bb.get(separator);
+            if (b == EbtsConstants.SEPARATOR_GROUP || b == EbtsConstants.SEPARATOR_FILE) {
+                return separator;
+            }
+            separator = separatorIndex.next(separator + 1, bb.limit());
+        }
+        return -1;
+    }
+
+    private int findFileSeparator(final ByteBuffer bb, final int start) {
+
+        int separator = separatorIndex.next(start, bb.limit());
+        while (separator != -1 && bb.get(separator) != EbtsConstants.SEPARATOR_FILE) {
+            separator = separatorIndex.next(separator + 1, bb.limit());
+        }
+        return separator;
+    }
+
+    /**
+     * Decodes a field tag (e.g. 2.018:) at the buffer's position into {@link #tag} and moves past its colon.
+     * A tag without a record number (e.g. 018:) is read as a field number alone.
+     *
+     * @param bb the bb
+     * @return false if the tag is malformed
+     */
+    private boolean readTag(final ByteBuffer bb) {
+
+        final int start = bb.position();
+        final int limit = Math.min(bb.limit(), start + MAX_TAG_LENGTH + 1);
+
+        int number = 0;
+        int digits = 0;
+        boolean hasRecordNumber = false;
+        for (int position = start; position < limit; position++) {
+            final byte b = bb.get(position);
+            if (b >= '0' && b <= '9') {
+                number = number * 10 + (b - '0');
+                digits++;
+            } else if (b == '.' && !hasRecordNumber && digits > 0) {
+                tag[0] = number;
+                hasRecordNumber = true;
+                number = 0;
+                digits = 0;
+            } else if (b == COLON) {
+                final int tagLength = position - start;
+                if (tagLength < MIN_TAG_LENGTH || digits == 0 || digits > MAX_NUMBER_DIGITS) {
+                    return false;
+                }
+                if (!hasRecordNumber) {
+                    log.warn("No record number found in tag of field: {}", number);
+                    tag[0] = -1;
+                }
+                tag[1] = number;
+                bb.position(position + 1);
+                return true;
+            } else {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Tokenizer for records containing binary header data
+     */
+    private int tokenizeBinaryHeaderRecord(final int[] format, final ByteBuffer bb, final EbtsHandler handler) throws EbtsParsingException {
+
+        headerFormat = format;
+
+        //No data remains
+        if (bb.capacity() == 0) {
+            return -1;
+        }
+
+        final int length = tokenizeHeader(format, bb, handler);
+        final int headerLength = bb.position();
+
+        handler.imageData(format.length + 1, view(bb.asReadOnlyBuffer(), headerLength, headerLength + length - headerLength));
+
+        return length;
+    }
+
+    private int tokenizeType7(final ByteBuffer bb, final EbtsHandler handler) throws EbtsParsingException {
+
+        headerFormat = type7Handling.equals(Type7Handling.NIST) ? TYPE7_NIST_HEADER : TYPE3456_HEADER;
+
+        //No data remains
+        if (bb.capacity() == 0) {
+            return -1;
+        }
+
+        int[] image = null;
+        if(type7Handling.equals(Type7Handling.NIST)) {
+            image = locateType7ImageAsNist(bb);
+        }
+        else if(type7Handling.equals(Type7Handling.TREAT_AS_TYPE4)) {
+            image = locateType7ImageAsType4(bb);
+        }else if(type7Handling.equals(Type7Handling.FLEX )){
+            //Decide on the layout from the header up front, rather than by attempting a parse
+            if (hasType4Header(bb)) {
+                image = locateType7ImageAsType4(bb);
+            } else {
+                log.debug("Type 7 header does not match the type 4 layout, parsing as NIST");
+                headerFormat = TYPE7_NIST_HEADER;
+                image = locateType7ImageAsNist(bb);
+            }
+        }
+
+        bb.position(0);
+        final int length = tokenizeHeader(headerFormat, bb, handler);
+
+        if (image != null) {
+            handler.imageData(TYPE7_IMAGE_FIELD, view(bb.asReadOnlyBuffer(), image[0], image[0] + image[1]));
+        }
+
+        return length;
+    }
+
+    /**
+     * Checks whether a Type-7 record appears to have the same header as a Type-4 record, i.e. whether
+     * {@link #locateType7ImageAsType4(ByteBuffer)} can be used on it. Only the header is examined: the LEN must
+     * cover the header and fit in the data, the ISR must be 0 or 1, the HLL and VLL must be non-zero and the
+     * compression algorithm (CGA) must be a known one. An uncompressed (CGA 0) record is only accepted when
+     * a recognized image immediately follows the header.
+     *
+     * @return true if the record should be read with a Type-4 style header
+     */
+    private static boolean hasType4Header(final ByteBuffer bb) {
+
+        final int headerLength = 18;
+        if (bb.limit() < headerLength) {
+            return false;
+        }
+
+        final int len = bb.getInt(0);
+        if (len < headerLength || len > bb.limit()) {
+            return false;
+        }
+
+        final byte isr = bb.get(12);
+        final int hll = bb.getShort(13) & 0xFFFF;
+        final int vll = bb.getShort(15) & 0xFFFF;
+        final byte alg = bb.get(headerLength - 1);
+        if ((isr != 0 && isr != 1) || hll == 0 || vll == 0 || alg < 0 || alg > 6) {
+            return false;
+        }
+
+        return alg != 0 || detectImageFormat(bb, headerLength) != null;
+    }
+
+    /**
+     * Locates the image data of a Type-7 record with a four byte LEN and a one byte IDC.
+     *
+     * @return the offset and length of the image data
+     */
+    private static int[] locateType7ImageAsNist(final ByteBuffer bb) {
+
+        final int headerLength = 5;
+        final int len = bb.getInt(0);
+
+        //Examine the mimetype of the remaining data
+        final int actualRemaining = bb.limit() - headerLength;
+        final int expectedRemaining = len - headerLength;
+        if(expectedRemaining != actualRemaining) {
+            log.warn("Unexpected remaining length found in type7 record. Expected: {} Actual: {}", expectedRemaining, actualRemaining);
+        }
+
+        return new int[]{headerLength, Math.min(expectedRemaining, actualRemaining)};
+    }
+
+    /**
+     * Locates the image data of a Type-7 record with the same header as a Type-4 record.
+     * If the data following the header is not a recognized image, the image is searched for based on the
+     * compression algorithm (CGA), as it may not be at the beginning of the remaining data (Thanks CBEFF).
+     *
+     * @return the offset and length of the image data, or null if no image was found
+     * @throws EbtsParsingException if the record does not appear to have a Type-4 style header
+     */
+    private static int[] locateType7ImageAsType4(final ByteBuffer bb) throws EbtsParsingException {
+
+        final int headerLength = 18;
+        final int len = bb.getInt(0);
+        final byte alg = bb.get(headerLength - 1);
+
+        final int remaining = Math.min(len, bb.limit()) - headerLength;
+        final ImageFormat format = detectImageFormat(bb, headerLength);
+
+        if (format != null) {
+            log.debug("Found image format of remaining data to be: {}",format);
+            return new int[]{headerLength, remaining};
+        }
+
+        log.debug("No image found after the header, searching for image based on CGA");
+
+        //TODO: Add Length Checks
+        if (alg != 0) {
+            final ByteBuffer search = bb.duplicate();
+            search.position(headerLength);
+
+            int imageLocation = -1;
+            if (alg == 1) {
+                imageLocation = ImageUtils.getWsqImagePosition(search);
+                log.debug("Found WSQ at byte:{}",imageLocation);
+
+            } else if (alg == 2) {
+                imageLocation = ImageUtils.getJpgImagePosition(search);
+                log.debug("Found JPG at byte:{}",imageLocation);
+
+            } else if (alg == 4 || alg == 5) {
+                imageLocation = ImageUtils.getJp2ImagePosition(search);
+                log.debug("Found JP2 at byte:{}",imageLocation);
+            }
+            //PNG
+            else if (alg == 6) {
+                imageLocation = ImageUtils.getPngImagePosition(search);
+                log.debug("Found PNG at byte:{}",imageLocation);
+            }
+
+            if (imageLocation != -1) {
+                return new int[]{imageLocation, len - imageLocation};
+            }
+            return null;
+        } else {
+            throw new EbtsParsingException("Unable to parse type 7 as type 4. Unexpected value in alg field.");
+        }
+    }
+
+    /**
+     * Returns the format of the image immediately following a binary header, from its signature.
+     */
+    private static ImageFormat detectImageFormat(final ByteBuffer bb, final int headerLength) {
+        final ByteBuffer data = bb.duplicate();
+        data.position(headerLength);
+        return ImageFormat.detect(data);
+    }
+
+    /**
+     * Reports each item of a binary header as a field, in the text form used by {@link org.mitre.jet.ebts.field.Field}.
+     *
+     * @param format the header format
+     * @param bb buffer positioned at the start of the header, which is moved past it
+     * @param handler the handler
+     * @return the record length from the first header item
+     */
+    private int tokenizeHeader(final int[] format, final ByteBuffer bb, final EbtsHandler handler) throws EbtsParsingException {
+
+        int length = -1;
+
+        //iterate through the header format array, and grab bytes in segments as specified by the lengths stored in the
+        //header format array
+        for (int headerPosition = 1; headerPosition <= format.length; headerPosition++) {
+            final int headerItemLength = format[headerPosition-1];
+            final ByteBuffer item;
+            if (headerItemLength == 1) {
+                item = headerValue(bb.get() & 0xff);
+            } else if (headerItemLength == 2) {
+                item = headerValue(bb.getShort());
+            } else if (headerItemLength == 4) {
+                length = bb.getInt();
+                item = headerValue(length);
+            } else if (headerItemLength == 6) {
+                item = headerValue(bb.get());
+                bb.position(bb.position() + 5);
+            } else {
+                item = view(bb.asReadOnlyBuffer(), bb.position(), bb.position() + headerItemLength);
+                bb.position(bb.position() + headerItemLength);
+            }
+            handler.field(headerPosition, item);
+        }
+
+        return length;
+    }
+
+    /**
+     * Writes the decimal form of a binary header value into the reusable header buffer.
+     *
+     * @param value the value
+     * @return the header buffer, positioned on the digits
+     */
+    private ByteBuffer headerValue(final int value) {
+
+        int position = headerDigits.length;
+        long remaining = Math.abs((long) value);
+        do {
+            headerDigits[--position] = (byte) ('0' + remaining % 10);
+            remaining /= 10;
+        } while (remaining != 0);
+        if (value < 0) {
+            headerDigits[--position] = '-';
+        }
+
+        return view(headerValue, position, headerDigits.length);
+    }
+
+    /**
+     * Reads the 1.003 CNT field into the list of record types and IDCs.
+     *
+     * @param value the field data
+     */
+    private void parseContentField(final ByteBuffer value) throws EbtsParsingException {
+
+        int count = 0;
+        int[] types = new int[16];
+        int[] idcs = new int[16];
+
+        final ByteBuffer item = value.duplicate();
+        int start = value.position();
+        int subField = 0;
+        for (int position = value.position(); position <= value.limit(); position++) {
+            final byte b = position < value.limit() ? value.get(position) : EbtsConstants.SEPARATOR_RECORD;
+            if (b != EbtsConstants.SEPARATOR_UNIT && b != EbtsConstants.SEPARATOR_RECORD) {
+                continue;
+            }
+
+            final int number = parseNumber(view(item, start, position));
+            if (subField == 0) {
+                if (number == -1) {
+                    throw new EbtsParsingException("Unable to parse IDC List in Type 1 Field 3.", 1, 3, -1);
+                }
+                if (count == types.length) {
+                    types = Arrays.copyOf(types, count * 2);
+                    idcs = Arrays.copyOf(idcs, count * 2);
+                }
+                types[count] = number;
+                idcs[count] = -1;
+                count++;
+            } else if (subField == 1) {
+                idcs[count - 1] = number;
+            }
+
+            subField = b == EbtsConstants.SEPARATOR_UNIT ? subField + 1 : 0;
+            start = position + 1;
+        }
+
+        recordTypes = Arrays.copyOf(types, count);
+        recordIdcs = Arrays.copyOf(idcs, count);
+    }
+
+    /**
+     * Parses an unsigned decimal number.
+     *
+     * @param value the digits
+     * @return the number, or -1 if the value is empty or not a number
+     */
+    private static int parseNumber(final ByteBuffer value) {
+
+        if (!value.hasRemaining() || value.remaining() > 9) {
+            return -1;
+        }
+
+        int number = 0;
+        for (int position = value.position(); position < value.limit(); position++) {
+            final byte b = value.get(position);
+            if (b < '0' || b > '9') {
+                return -1;
+            }
+            number = number * 10 + (b - '0');
+        }
+        return number;
+    }
+
+    /**
+     * Positions a view on the given range of its buffer.
+     *
+     * @param view the view
+     * @param start the start of the range
+     * @param end the end of the range
+     * @return the view
+     */
+    private static ByteBuffer view(final ByteBuffer view, final int start, final int end) {
+
+        view.clear();
+        view.limit(end);
+        view.position(start);
+        return view;
+    }
+}
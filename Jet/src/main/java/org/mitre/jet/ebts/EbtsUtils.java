@@ -22,13 +22,6 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.google.common.primitives.Ints;
 import com.google.common.primitives.Shorts;
-import org.apache.tika.config.TikaConfig;
-import org.apache.tika.detect.Detector;
-import org.apache.tika.io.TikaInputStream;
-import org.apache.tika.metadata.Metadata;
-import org.apache.tika.mime.MediaType;
-import org.apache.tika.mime.MimeType;
-import org.apache.tika.mime.MimeTypeException;
 import org.mitre.jet.ebts.field.Occurrence;
 import org.mitre.jet.ebts.field.SubField;
 import org.mitre.jet.exceptions.EbtsHandlingException;
@@ -37,6 +30,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
@@ -53,6 +47,10 @@ public final class EbtsUtils {
     private static final Set<Integer> binaryHeaderTypes = Sets.newHashSet(3,4,5,6,7,8);
     private static final Set<Integer> genericRecordTypes = Sets.newHashSet(1,2,9,10,13,14,15,16,17);
 
+    /** Number of leading bytes examined when detecting the mime type of a buffer. */
+    private static final int MIME_DETECTION_LENGTH = 64 * 1024;
+    private static final boolean TIKA_AVAILABLE = isTikaAvailable();
+
     private EbtsUtils() {}
 
     //Ensures that the Bimap for a particular record exists before trying to 
@@ -311,42 +309,41 @@ public final class EbtsUtils {
         }
     }
 
-    public static String getMimeExtension(final byte[] data) {
-
-        final TikaConfig config = TikaConfig.getDefaultConfig();
-        final Detector detector = config.getDetector();
-
-        final TikaInputStream stream = TikaInputStream.get(data);
-
-        final Metadata metadata = new Metadata();
+    /**
+     * Detects the mime type extension of the data remaining in a buffer, without changing the buffer's position.
+     * Image formats found in Ebts records are recognized from their signature without copying the data
+     * (see {@link ImageFormat}). Other data is passed to Tika when it is on the classpath, copying only the
+     * leading bytes used by its detector.
+     *
+     * @param data the data
+     * @return the extension (e.g. .jpg), or an empty string if the type could not be determined
+     */
+    public static String getMimeExtension(final ByteBuffer data) {
 
-        MediaType mediaType = null;
-        try {
-            mediaType = detector.detect(stream, metadata);
-        } catch (final IOException e) {
-            //TODO: Handle
-            e.printStackTrace();
+        final ImageFormat format = ImageFormat.detect(data);
+        if (format != null) {
+            return format.getExtension();
         }
-
-        if (mediaType == null) {
+        if (!TIKA_AVAILABLE) {
             return "";
         }
 
-        MimeType mimeType = null;
-
-        try {
-            mimeType = config.getMimeRepository().forName(mediaType.toString());
-        } catch (final MimeTypeException e) {
-            //TODO: Handle
-            e.printStackTrace();
-        }
+        final byte[] head = new byte[Math.min(data.remaining(), MIME_DETECTION_LENGTH)];
+        data.duplicate().get(head);
+        return TikaMimeDetector.getExtension(head);
+    }
 
-        String extension = "";
+    public static String getMimeExtension(final byte[] data) {
+        return getMimeExtension(ByteBuffer.wrap(data));
+    }
 
-        if (mimeType != null) {
-            extension = mimeType.getExtension();
+    private static boolean isTikaAvailable() {
+        try {
+            Class.forName("org.apache.tika.config.TikaConfig", false, EbtsUtils.class.getClassLoader());
+            return true;
+        } catch (final ClassNotFoundException e) {
+            log.debug("Tika is not available, only image formats will be detected");
+            return false;
         }
-
-        return extension;
     }
 }
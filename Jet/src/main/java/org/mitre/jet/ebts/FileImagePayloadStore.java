@@ -0,0 +1,156 @@
+/*
+ * Copyright 2014 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mitre.jet.ebts;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <p>
+ *     Spills image data to a temporary file, which is mapped in large segments as it grows. Each image is copied into
+ *     the current segment and read back through a read-only slice of it, so storing an image costs neither a system
+ *     call nor a mapping of its own, and a file holding many images stays well within the operating system's limit on
+ *     mappings (e.g. {@code vm.max_map_count} on Linux). An image larger than a segment is given a mapping of its own.
+ *     The operating system pages the images in and out as they are read, so neither the heap nor direct memory hold
+ *     them.
+ * </p>
+ * <p>
+ *     The file is deleted when the store is closed, or failing that when the JVM exits. Records parsed with the
+ *     store must not be read once it is closed.
+ * </p>
+ *
+ * @author ADAY
+ */
+public final class FileImagePayloadStore implements ImagePayloadStore, Closeable {
+
+    private static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private final File file;
+    private final FileChannel channel;
+    private final int segmentSize;
+    /** The segment images are being copied into, or null if a new one is needed. */
+    private MappedByteBuffer segment;
+    private long size;
+    private int mappingCount;
+
+    /**
+     * Creates the store and its temporary file.
+     *
+     * @param directory the directory to create the file in, or null for the default temporary directory
+     * @throws IOException if the file cannot be created
+     */
+    public FileImagePayloadStore(@Nullable final File directory) throws IOException {
+
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Creates the store and its temporary file, mapping the file in segments of a given size.
+     *
+     * @param directory the directory to create the file in, or null for the default temporary directory
+     * @param segmentSize the size of each segment
+     * @throws IOException if the file cannot be created
+     */
+    FileImagePayloadStore(@Nullable final File directory, final int segmentSize) throws IOException {
+
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("Segment size must be positive: " + segmentSize);
+        }
+        this.segmentSize = segmentSize;
+        this.file = File.createTempFile("jet", ".img", directory);
+        this.file.deleteOnExit();
+        this.channel = new RandomAccessFile(file, "rw").getChannel();
+    }
+
+    @NotNull
+    @Override
+    public synchronized ByteBuffer store(@NotNull final ByteBuffer data) throws IOException {
+
+        if (!channel.isOpen()) {
+            throw new IOException("Image payload store is closed");
+        }
+
+        final int length = data.remaining();
+        if (length == 0) {
+            return ByteBuffer.allocate(0).asReadOnlyBuffer();
+        }
+
+        final ByteBuffer target;
+        if (length > segmentSize) {
+            //The image is mapped on its own, and the next image starts a new segment after it
+            target = map(length);
+            segment = null;
+        } else {
+            if (segment == null || segment.remaining() < length) {
+                //A new segment starts straight after the last image, so the unused end of the last segment is reused
+                segment = map(segmentSize);
+            }
+            target = segment.slice();
+            target.limit(length);
+            segment.position(segment.position() + length);
+        }
+        target.put(data.duplicate());
+        target.flip();
+        size += length;
+        return target.asReadOnlyBuffer();
+    }
+
+    /**
+     * Maps the region of the file starting after the images stored so far, growing the file to hold it.
+     */
+    private MappedByteBuffer map(final int length) throws IOException {
+
+        mappingCount++;
+        return channel.map(FileChannel.MapMode.READ_WRITE, size, length);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the number of bytes of image data stored, which may be less than the length of the file as the file
+     * is grown a segment at a time
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * @return the number of regions of the file that have been mapped
+     */
+    synchronized int getMappingCount() {
+        return mappingCount;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+
+        segment = null;
+        channel.close();
+        //Some platforms refuse to delete a file that is still mapped, in which case it is deleted on exit
+        file.delete();
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2014 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mitre.jet.ebts;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ *     Image formats found in Ebts records, recognized by the signature ("magic number") at the start of their data.
+ *     Detection reads the leading bytes of a buffer in place, without copying it or changing its position:
+ * </p>
+ * <pre>
+ *     ImageFormat format = ImageFormat.detect(record.getImageBuffer());
+ * </pre>
+ */
+public enum ImageFormat {
+
+    WSQ(".wsq", new byte[]{(byte) 0xFF, (byte) 0xA0, (byte) 0xFF}),
+    JPEG(".jpg", new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF}),
+    JP2(".jp2", new byte[]{0x00, 0x00, 0x00, 0x0C, 0x6A, 0x50, 0x20, 0x20, 0x0D, 0x0A, (byte) 0x87, 0x0A}),
+    J2K(".j2c", new byte[]{(byte) 0xFF, 0x4F, (byte) 0xFF, 0x51}),
+    PNG(".png", new byte[]{(byte) 0x89, 0x50, 0x4E, 0x47, 0x0D, 0x0A, 0x1A, 0x0A}),
+    GIF(".gif", new byte[]{0x47, 0x49, 0x46, 0x38, 0x37, 0x61}, new byte[]{0x47, 0x49, 0x46, 0x38, 0x39, 0x61}),
+    TIFF(".tiff", new byte[]{0x49, 0x49, 0x2A, 0x00}, new byte[]{0x4D, 0x4D, 0x00, 0x2A}),
+    BMP(".bmp", new byte[]{0x42, 0x4D}) {
+        /**
+         * "BM" alone is too likely to start other data (e.g. uncompressed pixels), so the rest of the file header
+         * and the size of the DIB header that follows it are checked too.
+         */
+        @Override
+        boolean matches(final ByteBuffer data, final int index) {
+
+            if (!super.matches(data, index) || data.limit() - index < BMP_HEADER_LENGTH) {
+                return false;
+            }
+            final long fileSize = littleEndianInt(data, index + 2);
+            final int reserved = data.getInt(index + 6);
+            final long pixelOffset = littleEndianInt(data, index + 10);
+            final long dibHeaderSize = littleEndianInt(data, index + 14);
+            if (reserved != 0 || !isBmpDibHeaderSize(dibHeaderSize)) {
+                return false;
+            }
+            final long headersLength = 14 + dibHeaderSize;
+            return pixelOffset >= headersLength && fileSize >= pixelOffset;
+        }
+    };
+
+    /** The BMP file header and the size field of the DIB header that follows it. */
+    private static final int BMP_HEADER_LENGTH = 18;
+
+    private final String extension;
+    private final byte[][] signatures;
+
+    ImageFormat(final String extension, final byte[]... signatures) {
+        this.extension = extension;
+        this.signatures = signatures;
+    }
+
+    /**
+     * Identifies the image format of the data remaining in a buffer.
+     *
+     * @param data the data, which is not moved
+     * @return the format, or null if the data does not start with a known signature
+     */
+    @Nullable
+    public static ImageFormat detect(@NotNull final ByteBuffer data) {
+
+        for (final ImageFormat format : values()) {
+            if (format.matches(data, data.position())) {
+                return format;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The file extension, in the same form returned by {@link EbtsUtils#getMimeExtension(ByteBuffer)}.
+     *
+     * @return the extension (e.g. .jpg)
+     */
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * Finds the first occurrence of this format's signature in the data remaining in a buffer, e.g. to locate an
+     * image inside a CBEFF wrapper.
+     *
+     * @param data the data, which is not moved
+     * @return the index in the buffer of the start of the image (-1 if not found)
+     */
+    public int find(@NotNull final ByteBuffer data) {
+
+        for (int index = data.position(); index < data.limit(); index++) {
+            if (matches(data, index)) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Checks whether the data at an index starts with this format's signature.
+     *
+     * @param data the data, which is not moved
+     * @param index the index in the buffer
+     * @return true if the format is recognized
+     */
+    boolean matches(final ByteBuffer data, final int index) {
+
+        for (final byte[] signature : signatures) {
+            if (matches(data, index, signature)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return whether a size is that of one of the BMP DIB headers (BITMAPCOREHEADER to BITMAPV5HEADER)
+     */
+    private static boolean isBmpDibHeaderSize(final long size) {
+        return size == 12 || size == 40 || size == 52 || size == 56 || size == 64 || size == 108 || size == 124;
+    }
+
+    private static long littleEndianInt(final ByteBuffer data, final int index) {
+        return (data.get(index) & 0xFFL) | (data.get(index + 1) & 0xFFL) << 8
+                | (data.get(index + 2) & 0xFFL) << 16 | (data.get(index + 3) & 0xFFL) << 24;
+    }
+
+    private static boolean matches(final ByteBuffer data, final int index, final byte[] signature) {
+
+        if (data.limit() - index < signature.length) {
+            return false;
+        }
+        for (int i = 0; i < signature.length; i++) {
+            if (data.get(index + i) != signature[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
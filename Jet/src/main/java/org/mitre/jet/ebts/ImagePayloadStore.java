@@ -0,0 +1,57 @@
+/*
+ * Copyright 2014 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mitre.jet.ebts;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ *     Holds the image data (e.g. 4.009, 10.999 and 14.999) of parsed records somewhere other than the Java heap, so
+ *     the heap can be sized for the descriptive fields rather than the images. Set one on a {@link ParseSpec}:
+ * </p>
+ * <pre>
+ *     FileImagePayloadStore store = new FileImagePayloadStore(null);
+ *     ParseSpec spec = ParseSpec.builder().imagePayloadStore(store).build();
+ *     Ebts ebts = EbtsParser.parse(bytes, spec);
+ * </pre>
+ * <p>
+ *     The images are still read with {@link org.mitre.jet.ebts.records.LogicalRecord#getImageData()}, which copies them
+ *     onto the heap on each call, or without copying through
+ *     {@link org.mitre.jet.ebts.records.LogicalRecord#getImageBuffer()} and
+ *     {@link org.mitre.jet.ebts.records.LogicalRecord#getImageStream()}.
+ * </p>
+ *
+ * @see DirectImagePayloadStore
+ * @see FileImagePayloadStore
+ * @author ADAY
+ */
+public interface ImagePayloadStore {
+
+    /**
+     * Stores a copy of the remaining bytes of a buffer. Stores may be shared by several parsers, so this may be
+     * called from more than one thread.
+     *
+     * @param data the image data. Its position is not changed.
+     * @return a buffer holding the copy, positioned at its start
+     * @throws IOException if the data cannot be stored
+     */
+    @NotNull
+    ByteBuffer store(@NotNull ByteBuffer data) throws IOException;
+}
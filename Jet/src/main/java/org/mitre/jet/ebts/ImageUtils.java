@@ -16,9 +16,6 @@
 
 package org.mitre.jet.ebts;
 
-import org.mitre.jet.common.ByteBufferUtils;
-
-import javax.xml.bind.DatatypeConverter;
 import java.nio.ByteBuffer;
 
 /**
@@ -26,25 +23,19 @@ import java.nio.ByteBuffer;
  */
 public class ImageUtils {
 
-    //TODO: Store the byte array data in its raw format to improve performance
-
     public static int getWsqImagePosition(final ByteBuffer bb) {
-        final byte[] header = DatatypeConverter.parseHexBinary("FFA0FF");
-        return ByteBufferUtils.findIndex(bb, header);
+        return ImageFormat.WSQ.find(bb);
     }
 
     public static int getJp2ImagePosition(final ByteBuffer bb) {
-        final byte[] header =  DatatypeConverter.parseHexBinary("0000000C6A5020200D0A870A");
-        return ByteBufferUtils.findIndex(bb, header);
+        return ImageFormat.JP2.find(bb);
     }
 
     public static int getJpgImagePosition(final ByteBuffer bb) {
-        final byte[] header =  DatatypeConverter.parseHexBinary("FFD8FF");
-        return ByteBufferUtils.findIndex(bb, header);
+        return ImageFormat.JPEG.find(bb);
     }
 
     public static int getPngImagePosition(final ByteBuffer bb) {
-        final byte[] header =  DatatypeConverter.parseHexBinary("89504E470D0A1A0A");
-        return ByteBufferUtils.findIndex(bb, header);
+        return ImageFormat.PNG.find(bb);
     }
 }
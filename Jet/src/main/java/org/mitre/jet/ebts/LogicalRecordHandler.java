@@ -0,0 +1,266 @@
+/*
+ * Copyright 2014 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mitre.jet.ebts;
+
+import org.mitre.jet.ebts.field.Field;
+import org.mitre.jet.ebts.field.SeparatorIndex;
+import org.mitre.jet.ebts.records.BinaryHeaderImageRecord;
+import org.mitre.jet.ebts.records.GenericRecord;
+import org.mitre.jet.ebts.records.LogicalRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Builds the logical records of an {@link Ebts} from the events of an {@link EbtsTokenizer}.
+ *
+ * @author ADAY
+ */
+final class LogicalRecordHandler implements EbtsHandler {
+
+    private static final Logger log = LoggerFactory.getLogger(LogicalRecordHandler.class);
+
+    /** Text fields at least this long are left in the shared buffer when parsing without copying. */
+    private static final int SHARED_FIELD_THRESHOLD = 256;
+
+    private final EbtsTokenizer tokenizer;
+    private final ParseSpec parseSpec;
+    private final boolean shared;
+    private final boolean keepSeparatorIndex;
+    private Ebts ebts = new Ebts();
+
+    private int recordType;
+    private boolean included;
+    private LogicalRecord record;
+
+    /**
+     * Text fields of the current record that are to be copied, as (field number, start, end) triples in
+     * {@link #pendingRecord}. They are copied together into one array once the record is complete.
+     */
+    private int[] pendingFields = new int[48];
+    private int pendingCount;
+    private ByteBuffer pendingRecord;
+    private SeparatorIndex pendingSeparators;
+
+    /**
+     * @param tokenizer the tokenizer producing the events
+     * @param parseSpec which records and fields to keep
+     * @param shared whether image data and large fields should remain views of the parsed buffer
+     */
+    LogicalRecordHandler(final EbtsTokenizer tokenizer, final ParseSpec parseSpec, final boolean shared) {
+        this(tokenizer, parseSpec, shared, true);
+    }
+
+    /**
+     * @param tokenizer the tokenizer producing the events
+     * @param parseSpec which records and fields to keep
+     * @param shared whether image data and large fields should remain views of the parsed buffer
+     * @param keepSeparatorIndex whether text fields keep the tokenizer's separator index to split themselves
+     *                           with. If not, the tokenizer reuses the index for each record.
+     */
+    LogicalRecordHandler(final EbtsTokenizer tokenizer, final ParseSpec parseSpec, final boolean shared, final boolean keepSeparatorIndex) {
+        this.tokenizer = tokenizer;
+        this.parseSpec = parseSpec;
+        this.shared = shared;
+        this.keepSeparatorIndex = keepSeparatorIndex;
+    }
+
+    /**
+     * Starts a new Ebts, so that the handler can be used for another file.
+     */
+    void reset() {
+        ebts = new Ebts();
+        record = null;
+        included = false;
+        clearPendingFields();
+    }
+
+    @Override
+    public boolean startRecord(final int recordType, final int idc) {
+
+        clearPendingFields();
+        this.recordType = recordType;
+        this.included = parseSpec.includesRecord(recordType);
+        //Binary header records are created once the tokenizer has settled on their header format
+        this.record = included && EbtsUtils.getGenericRecordTypes().contains(recordType) ? new GenericRecord(recordType) : null;
+        return included;
+    }
+
+    @Override
+    public void field(final int fieldNumber, final ByteBuffer value) {
+
+        if (!parseSpec.includesField(recordType, fieldNumber)) {
+            return;
+        }
+        if (record == null) {
+            record = new BinaryHeaderImageRecord(recordType, tokenizer.getHeaderFormat());
+        }
+
+        if (!(record instanceof GenericRecord)) {
+            setField(fieldNumber, new Field(copy(value), ParseContents.FALSE));
+        } else if (shared && value.remaining() >= SHARED_FIELD_THRESHOLD) {
+            setField(fieldNumber, textField(value.slice(), keepSeparatorIndex ? tokenizer.getSeparatorIndex() : null, value.position()));
+        } else {
+            addPendingField(fieldNumber, value);
+        }
+    }
+
+    @Override
+    public void imageData(final int fieldNumber, final ByteBuffer data) {
+
+        if (!parseSpec.includesField(recordType, fieldNumber)) {
+            return;
+        }
+        if (record == null) {
+            record = new BinaryHeaderImageRecord(recordType, tokenizer.getHeaderFormat());
+        }
+
+        final ImagePayloadStore store = parseSpec.getImagePayloadStore();
+        if (store != null) {
+            record.setField(fieldNumber, new Field(store(store, data), ParseContents.EXTERNAL));
+        } else if (record instanceof GenericRecord) {
+            if (shared) {
+                ((GenericRecord) record).setImageData(data.slice());
+            } else {
+                ((GenericRecord) record).setImageData(copy(data));
+            }
+        } else if (shared) {
+            record.setField(fieldNumber, new Field(data.slice(), ParseContents.FALSE));
+        } else {
+            record.setField(fieldNumber, new Field(copy(data), ParseContents.FALSE));
+        }
+    }
+
+    @Override
+    public boolean endRecord(final int recordType) {
+
+        if (included) {
+            copyPendingFields();
+            if (record == null) {
+                record = new BinaryHeaderImageRecord(recordType, tokenizer.getHeaderFormat());
+            }
+            ebts.addRecord(record);
+        }
+
+        return !parseSpec.stopsAfter(recordType);
+    }
+
+    ParseSpec getParseSpec() {
+        return parseSpec;
+    }
+
+    /**
+     * @return the Ebts built so far
+     */
+    Ebts getEbts() {
+        return ebts;
+    }
+
+    /**
+     * @return the most recently completed record, or null if it was skipped
+     */
+    LogicalRecord getLastRecord() {
+        return record;
+    }
+
+    private void setField(final int fieldNumber, final Field field) {
+
+        record.setField(fieldNumber, field);
+        if (log.isDebugEnabled()) {
+            log.debug("Parsed Field: {}.{} Data:{}", recordType, fieldNumber, field.toString(";",","));
+        }
+    }
+
+    /**
+     * Text fields are only split into occurrences/subfields once they are accessed, using the separator
+     * positions the tokenizer has already found if they are kept.
+     */
+    private static Field textField(final ByteBuffer data, final SeparatorIndex separators, final int offset) {
+
+        return separators != null ? new Field(data, separators, offset) : new Field(data, ParseContents.LAZY);
+    }
+
+    private void addPendingField(final int fieldNumber, final ByteBuffer value) {
+
+        if (pendingRecord == null) {
+            pendingRecord = value.duplicate();
+            pendingSeparators = keepSeparatorIndex ? tokenizer.getSeparatorIndex() : null;
+        }
+        if (pendingCount + 3 > pendingFields.length) {
+            pendingFields = Arrays.copyOf(pendingFields, pendingFields.length * 2);
+        }
+        pendingFields[pendingCount++] = fieldNumber;
+        pendingFields[pendingCount++] = value.position();
+        pendingFields[pendingCount++] = value.limit();
+    }
+
+    /**
+     * Copies the pending text fields of the record into a single array that they, and the subfields they are
+     * later split into, all share, rather than giving each field and subfield its own array.
+     */
+    private void copyPendingFields() {
+
+        if (pendingCount == 0) {
+            return;
+        }
+
+        int length = 0;
+        for (int i = 0; i < pendingCount; i += 3) {
+            length += pendingFields[i + 2] - pendingFields[i + 1];
+        }
+
+        final byte[] text = new byte[length];
+        int offset = 0;
+        for (int i = 0; i < pendingCount; i += 3) {
+            final int start = pendingFields[i + 1];
+            final int fieldLength = pendingFields[i + 2] - start;
+            pendingRecord.clear();
+            pendingRecord.position(start);
+            pendingRecord.get(text, offset, fieldLength);
+            setField(pendingFields[i], textField(ByteBuffer.wrap(text, offset, fieldLength), pendingSeparators, start));
+            offset += fieldLength;
+        }
+        clearPendingFields();
+    }
+
+    private void clearPendingFields() {
+
+        pendingCount = 0;
+        pendingRecord = null;
+        pendingSeparators = null;
+    }
+
+    private static ByteBuffer store(final ImagePayloadStore store, final ByteBuffer data) {
+
+        try {
+            return store.store(data);
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Unable to store image data", e);
+        }
+    }
+
+    private static byte[] copy(final ByteBuffer data) {
+
+        final byte[] bytes = new byte[data.remaining()];
+        data.duplicate().get(bytes);
+        return bytes;
+    }
+}
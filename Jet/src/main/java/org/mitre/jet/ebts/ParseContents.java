@@ -22,5 +22,14 @@ package org.mitre.jet.ebts;
 public enum ParseContents {
 
     TRUE,
-    FALSE
+    FALSE,
+
+    /** The data is kept as-is and only parsed into occurrences/subfields the first time they are accessed. */
+    LAZY,
+
+    /**
+     * The data is not parsed, and is left in the buffer it was given (e.g. off the heap, see {@link ImagePayloadStore})
+     * rather than being copied onto the heap when it is read, so each call to getData() returns a new copy.
+     */
+    EXTERNAL
 }
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2014 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mitre.jet.ebts;
+
+import org.mitre.jet.exceptions.EbtsParsingException;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of a lenient parse (see {@link EbtsParser#parseLenient(byte[], ParseSpec)}): the records that could
+ * be parsed, and a {@link Diagnostic} for each record that could not.
+ *
+ * @author ADAY
+ */
+public final class ParseResult {
+
+    private final Ebts ebts;
+    private final List<Diagnostic> diagnostics;
+
+    ParseResult(final Ebts ebts, final List<Diagnostic> diagnostics) {
+        this.ebts = ebts;
+        this.diagnostics = Collections.unmodifiableList(diagnostics);
+    }
+
+    /**
+     * @return the records that were parsed, without those that had errors
+     */
+    public Ebts getEbts() {
+        return ebts;
+    }
+
+    /**
+     * @return the errors, in file order
+     */
+    public List<Diagnostic> getDiagnostics() {
+        return diagnostics;
+    }
+
+    /**
+     * @return true if every record was parsed
+     */
+    public boolean isComplete() {
+        return diagnostics.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "ParseResult{" +
+                "diagnostics=" + diagnostics +
+                '}';
+    }
+
+    /**
+     * A record that could not be parsed, and was left out of the Ebts.
+     */
+    public static final class Diagnostic {
+
+        private final int recordType;
+        private final int idc;
+        private final long offset;
+        private final EbtsParsingException cause;
+
+        Diagnostic(final int recordType, final int idc, final long offset, final EbtsParsingException cause) {
+            this.recordType = recordType;
+            this.idc = idc;
+            this.offset = offset;
+            this.cause = cause;
+        }
+
+        public int getRecordType() {
+            return recordType;
+        }
+
+        /**
+         * @return the IDC listed for the record in the 1.003 CNT field, or -1 if none was listed
+         */
+        public int getIdc() {
+            return idc;
+        }
+
+        /**
+         * @return the byte offset from the start of the file at which the error was found. For records with
+         * tagged fields this is the start of the field being read; otherwise it is the start of the record.
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        public String getMessage() {
+            return cause.getMessage();
+        }
+
+        public EbtsParsingException getCause() {
+            return cause;
+        }
+
+        @Override
+        public String toString() {
+            return "Diagnostic{" +
+                    "recordType=" + recordType +
+                    ", idc=" + idc +
+                    ", offset=" + offset +
+                    ", message=" + getMessage() +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright 2014 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mitre.jet.ebts;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>
+ *     Describes which records and fields of an Ebts file should be parsed. A finer grained alternative to
+ *     {@link ParseType}, e.g. the Type-1, 2.018, 2.022 and the 10.999 face image, skipping everything else:
+ * </p>
+ * <pre>
+ *     ParseSpec spec = ParseSpec.builder()
+ *             .fields(2, 18, 22)
+ *             .fields(10, 999)
+ *             .build();
+ * </pre>
+ * <p>
+ *     Records that are not selected are stepped over using their LEN field without being copied or split
+ *     into fields. The Type-1 is always parsed, as it lists the records in the file, and the LEN and IDC
+ *     fields (x.001 and x.002) of every parsed record are always kept.
+ * </p>
+ *
+ * @author ADAY
+ */
+public final class ParseSpec {
+
+    private final Set<Integer> recordTypes;
+    private final Set<Integer> excludedRecordTypes;
+    private final Map<Integer,Set<Integer>> fields;
+    private final int stopAfterRecordType;
+    private final Type7Handling type7Handling;
+    private final ImagePayloadStore imagePayloadStore;
+    private final int maxRecordLength;
+
+    private ParseSpec(final Builder builder) {
+        this.recordTypes = new HashSet<Integer>(builder.recordTypes);
+        this.excludedRecordTypes = new HashSet<Integer>(builder.excludedRecordTypes);
+        this.fields = new HashMap<Integer,Set<Integer>>();
+        for (final Map.Entry<Integer,Set<Integer>> entry : builder.fields.entrySet()) {
+            this.fields.put(entry.getKey(), new HashSet<Integer>(entry.getValue()));
+        }
+        this.stopAfterRecordType = builder.stopAfterRecordType;
+        this.type7Handling = builder.type7Handling;
+        this.imagePayloadStore = builder.imagePayloadStore;
+        this.maxRecordLength = builder.maxRecordLength;
+    }
+
+    /**
+     * Creates a builder for a spec that, until restricted, parses every record and field.
+     *
+     * @return the builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns the spec equivalent to a {@link ParseType}.
+     *
+     * @param parseType the parse type
+     * @param type7Handling how type 7 records are laid out
+     * @return the spec
+     */
+    public static ParseSpec of(final ParseType parseType, final Type7Handling type7Handling) {
+
+        final Builder builder = builder().type7Handling(type7Handling);
+        if (parseType.equals(ParseType.DESCRIPTIVE_ONLY)) {
+            builder.recordTypes(1, 2).stopAfter(2);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Whether records of the given type are parsed.
+     *
+     * @param recordType the record type
+     * @return true if the records are parsed, false if they are skipped
+     */
+    public boolean includesRecord(final int recordType) {
+
+        if (recordType == 1) {
+            return true;
+        }
+        if (excludedRecordTypes.contains(recordType)) {
+            return false;
+        }
+        return (recordTypes.isEmpty() && fields.isEmpty()) || recordTypes.contains(recordType) || fields.containsKey(recordType);
+    }
+
+    /**
+     * Whether the given field of a parsed record is kept.
+     *
+     * @param recordType the record type
+     * @param fieldNumber the field number (e.g. 999 for 10.999)
+     * @return true if the field is kept
+     */
+    public boolean includesField(final int recordType, final int fieldNumber) {
+
+        if (fieldNumber == 1 || fieldNumber == 2) {
+            return true;
+        }
+        final Set<Integer> recordFields = fields.get(recordType);
+        return recordFields == null || recordFields.contains(fieldNumber);
+    }
+
+    /**
+     * Whether parsing ends after the first record of the given type.
+     *
+     * @param recordType the record type
+     * @return true if no further records are parsed
+     */
+    public boolean stopsAfter(final int recordType) {
+        return recordType == stopAfterRecordType;
+    }
+
+    public Type7Handling getType7Handling() {
+        return type7Handling;
+    }
+
+    /**
+     * @return where image data is kept, or null if it is kept on the heap
+     */
+    @Nullable
+    public ImagePayloadStore getImagePayloadStore() {
+        return imagePayloadStore;
+    }
+
+    /**
+     * @return the longest record, in bytes, that is read from a stream
+     */
+    public int getMaxRecordLength() {
+        return maxRecordLength;
+    }
+
+    /**
+     * Builds a {@link ParseSpec}.
+     */
+    public static final class Builder {
+
+        private final Set<Integer> recordTypes = new HashSet<Integer>();
+        private final Set<Integer> excludedRecordTypes = new HashSet<Integer>();
+        private final Map<Integer,Set<Integer>> fields = new HashMap<Integer,Set<Integer>>();
+        private int stopAfterRecordType = -1;
+        private Type7Handling type7Handling = Type7Handling.TREAT_AS_TYPE4;
+        private ImagePayloadStore imagePayloadStore;
+        private int maxRecordLength = Integer.MAX_VALUE;
+
+        private Builder() {}
+
+        /**
+         * Parses records of the given types. Once any types are given, other types are skipped.
+         *
+         * @param recordTypes the record types
+         * @return this builder
+         */
+        public Builder recordTypes(final int... recordTypes) {
+            for (final int recordType : recordTypes) {
+                this.recordTypes.add(recordType);
+            }
+            return this;
+        }
+
+        /**
+         * Skips records of the given types.
+         *
+         * @param recordTypes the record types
+         * @return this builder
+         */
+        public Builder excludeRecordTypes(final int... recordTypes) {
+            for (final int recordType : recordTypes) {
+                this.excludedRecordTypes.add(recordType);
+            }
+            return this;
+        }
+
+        /**
+         * Parses records of the given type, keeping only the given fields (and LEN/IDC).
+         * May be called more than once for the same type.
+         *
+         * @param recordType the record type
+         * @param fieldNumbers the field numbers, e.g. 999 for the image data of a Type-10
+         * @return this builder
+         */
+        public Builder fields(final int recordType, final int... fieldNumbers) {
+            Set<Integer> recordFields = fields.get(recordType);
+            if (recordFields == null) {
+                recordFields = new HashSet<Integer>();
+                fields.put(recordType, recordFields);
+            }
+            for (final int fieldNumber : fieldNumbers) {
+                recordFields.add(fieldNumber);
+            }
+            return this;
+        }
+
+        /**
+         * Ends parsing after the first record of the given type, e.g. after the Type-2 for
+         * {@link ParseType#DESCRIPTIVE_ONLY}.
+         *
+         * @param recordType the record type
+         * @return this builder
+         */
+        public Builder stopAfter(final int recordType) {
+            this.stopAfterRecordType = recordType;
+            return this;
+        }
+
+        public Builder type7Handling(final Type7Handling type7Handling) {
+            this.type7Handling = type7Handling;
+            return this;
+        }
+
+        /**
+         * Keeps the image data of parsed records in the given store rather than on the heap, including when
+         * parsing a memory-mapped file.
+         *
+         * @param imagePayloadStore the store, or null to keep image data on the heap
+         * @return this builder
+         */
+        public Builder imagePayloadStore(@Nullable final ImagePayloadStore imagePayloadStore) {
+            this.imagePayloadStore = imagePayloadStore;
+            return this;
+        }
+
+        /**
+         * Rejects records whose LEN field is longer than the given length when reading from a stream
+         * ({@link EbtsReader} and {@link EbtsPushParser}), rather than buffering them.
+         * Records are buffered as their data arrives, so a false LEN field alone does not allocate its length,
+         * but a server accepting untrusted uploads should still bound how much a single record can hold.
+         * Records that are skipped are not checked, as they are not buffered. By default there is no limit.
+         *
+         * @param maxRecordLength the longest record, in bytes
+         * @return this builder
+         */
+        public Builder maxRecordLength(final int maxRecordLength) {
+            if (maxRecordLength <= 0) {
+                throw new IllegalArgumentException("Maximum record length must be positive");
+            }
+            this.maxRecordLength = maxRecordLength;
+            return this;
+        }
+
+        public ParseSpec build() {
+            return new ParseSpec(this);
+        }
+    }
+}
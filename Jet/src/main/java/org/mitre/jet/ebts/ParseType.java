@@ -16,7 +16,7 @@
 
 package org.mitre.jet.ebts;
 
-/** An enumeration of parsing types. */
+/** An enumeration of parsing types. See {@link ParseSpec} for selecting individual records and fields. */
 public enum ParseType {
     /** Retrieves only the manifest information (types of records, idc values, etc.) for the file. */
     DESCRIPTIVE_ONLY,
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2014 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mitre.jet.ebts;
+
+import com.google.common.primitives.Ints;
+import org.mitre.jet.exceptions.EbtsParsingException;
+
+import java.nio.ByteBuffer;
+import java.util.Set;
+
+/**
+ * Determines logical record boundaries from the LEN field at the start of each record,
+ * without parsing any of the other fields.
+ */
+final class RecordFraming {
+
+    private static final Set<Integer> BINARY_HEADER_RECORD_TYPES = EbtsUtils.getBinaryHeaderTypes();
+
+    private static final byte COLON = 0x3a;
+
+    /** Longest field tag accepted before the colon (e.g. 10.001). Matches the check in the parser. */
+    private static final int MAX_TAG_LENGTH = 10;
+
+    /** Most digits accepted in a tagged LEN field. */
+    private static final int MAX_LENGTH_DIGITS = 9;
+
+    /** Number of bytes needed at the start of a record to read its LEN field. */
+    static final int MAX_LENGTH_PREFIX = MAX_TAG_LENGTH + MAX_LENGTH_DIGITS + 2;
+
+    /**
+     * Size of the buffer first allocated for a record read from a stream. The LEN field has not been checked
+     * against the data, so the buffer only grows towards it as the record's bytes arrive.
+     */
+    private static final int INITIAL_RECORD_BUFFER = 64 * 1024;
+
+    private RecordFraming() {}
+
+    /**
+     * Reads the length of the logical record starting at the buffer's position, as declared by its LEN field.
+     * The buffer's position is not changed.
+     *
+     * @param recordType the record type
+     * @param bb the bb
+     * @return the record length, or -1 if the buffer does not yet hold enough of the record to tell
+     * @throws EbtsParsingException if the LEN field is malformed
+     */
+    static int recordLength(final int recordType, final ByteBuffer bb) throws EbtsParsingException {
+
+        final int start = bb.position();
+        final int limit = bb.limit();
+
+        //Binary header records start with a four byte length
+        if (BINARY_HEADER_RECORD_TYPES.contains(recordType)) {
+            if (limit - start < 4) {
+                return -1;
+            }
+            return Ints.fromBytes(bb.get(start), bb.get(start + 1), bb.get(start + 2), bb.get(start + 3));
+        }
+
+        //Tagged records start with the LEN field (e.g. 10.001:1234<GS>)
+        int position = start;
+        while (position < limit && bb.get(position) != COLON) {
+            if (position - start >= MAX_TAG_LENGTH) {
+                throw new EbtsParsingException("Error parsing record. Invalid field tag.", recordType, 1, -1);
+            }
+            position++;
+        }
+
+        int length = 0;
+        int digits = 0;
+        for (position++; position < limit; position++) {
+            final byte b = bb.get(position);
+            if (b == EbtsConstants.SEPARATOR_GROUP || b == EbtsConstants.SEPARATOR_FILE) {
+                if (digits == 0) {
+                    break;
+                }
+                return length;
+            }
+            if (b < '0' || b > '9' || digits == MAX_LENGTH_DIGITS) {
+                break;
+            }
+            length = length * 10 + (b - '0');
+            digits++;
+        }
+
+        if (position < limit) {
+            throw new EbtsParsingException("Error parsing record. Invalid LEN field.", recordType, 1, -1);
+        }
+        return -1;
+    }
+
+    /**
+     * Checks the length declared by a record's LEN field against the most the parse spec allows.
+     *
+     * @param recordType the record type
+     * @param length the record length
+     * @param parseSpec the parse spec
+     * @throws EbtsParsingException if the record is longer than {@link ParseSpec#getMaxRecordLength()}
+     */
+    static void checkLength(final int recordType, final int length, final ParseSpec parseSpec) throws EbtsParsingException {
+
+        if (length > parseSpec.getMaxRecordLength()) {
+            throw new EbtsParsingException("Error parsing record. Record length " + length + " exceeds the maximum of "
+                    + parseSpec.getMaxRecordLength() + ".", recordType, 1, -1);
+        }
+    }
+
+    /**
+     * Allocates the buffer to read a record from a stream into. It is smaller than the record if the record is
+     * large; use {@link #ensureRemaining(ByteBuffer, int)} to grow it as the data arrives.
+     *
+     * @param length the record length
+     * @return the buffer, in write mode
+     */
+    static ByteBuffer recordBuffer(final int length) {
+        return ByteBuffer.allocate(Math.min(length, INITIAL_RECORD_BUFFER));
+    }
+
+    /**
+     * Grows a full record buffer so that more of the record can be read into it.
+     *
+     * @param buffer the buffer from {@link #recordBuffer(int)}, in write mode
+     * @param length the record length
+     * @return the buffer, or a larger copy of it if it was full
+     */
+    static ByteBuffer ensureRemaining(final ByteBuffer buffer, final int length) {
+
+        if (buffer.hasRemaining() || buffer.capacity() >= length) {
+            return buffer;
+        }
+        final ByteBuffer grown = ByteBuffer.allocate((int) Math.min(length, buffer.capacity() * 2L));
+        buffer.flip();
+        grown.put(buffer);
+        return grown;
+    }
+}
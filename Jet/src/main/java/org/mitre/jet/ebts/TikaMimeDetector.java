@@ -0,0 +1,71 @@
+/*
+ * Copyright 2014 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mitre.jet.ebts;
+
+import org.apache.tika.config.TikaConfig;
+import org.apache.tika.detect.Detector;
+import org.apache.tika.io.TikaInputStream;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.mime.MediaType;
+import org.apache.tika.mime.MimeType;
+import org.apache.tika.mime.MimeTypeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+
+/**
+ * Mime type detection using Tika, for data that {@link ImageFormat} does not recognize. Tika is an optional
+ * dependency, so this class must only be used once {@link EbtsUtils} has confirmed it is on the classpath.
+ */
+final class TikaMimeDetector {
+
+    private static final Logger log = LoggerFactory.getLogger(TikaMimeDetector.class);
+
+    /**
+     * Loading Tika's configuration reads its mime type definitions, so it is only done once. This class is not
+     * loaded until Tika is first needed, so neither is the configuration.
+     */
+    private static final TikaConfig CONFIG = TikaConfig.getDefaultConfig();
+
+    private TikaMimeDetector() {}
+
+    static String getExtension(final byte[] data) {
+
+        final Detector detector = CONFIG.getDetector();
+
+        MediaType mediaType = null;
+        try {
+            mediaType = detector.detect(TikaInputStream.get(data), new Metadata());
+        } catch (final IOException e) {
+            log.warn("Unable to detect mime type: {}", e.getMessage());
+        }
+
+        if (mediaType == null) {
+            return "";
+        }
+
+        MimeType mimeType = null;
+        try {
+            mimeType = CONFIG.getMimeRepository().forName(mediaType.toString());
+        } catch (final MimeTypeException e) {
+            log.warn("Unknown mime type {}: {}", mediaType, e.getMessage());
+        }
+
+        return mimeType != null ? mimeType.getExtension() : "";
+    }
+}
@@ -20,14 +20,14 @@ import org.jetbrains.annotations.NotNull;
 import org.mitre.jet.common.ByteBufferUtils;
 import org.mitre.jet.ebts.EbtsConstants;
 import org.mitre.jet.ebts.ParseContents;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
@@ -38,9 +38,32 @@ import java.util.List;
  */
 public class Field implements Serializable {
 
-    private static final Logger log = LoggerFactory.getLogger(Field.class);
     private List<Occurrence> occurrences = new ArrayList<Occurrence>();
 
+    /** Whether the field has been frozen. See {@link #freeze()}. */
+    private boolean frozen;
+
+    /**
+     * The serialized form of a field with several subfields, kept by {@link #getData()} and {@link #writeTo(OutputStream)}
+     * so that an unchanged field (e.g. when the same Ebts is built again) is not rebuilt. It is checked against the
+     * subfields it was built from each time it is used, so edits made through any occurrence or subfield are seen.
+     */
+    private transient byte[] serialized;
+    /** The subfields {@link #serialized} was built from, in order, and their modification counts at the time. */
+    private transient SubField[] serializedSubFields;
+    private transient int[] serializedModCounts;
+    /** The number of subfields in each occurrence when {@link #serialized} was built. */
+    private transient int[] serializedShape;
+
+    /**
+     * View of the undecoded field data for lazily parsed fields, which is never written to and only handed out
+     * read-only. Cleared once the occurrences are built, which then share it.
+     */
+    private transient ByteBuffer raw;
+    /** Separator positions of the record holding a lazily parsed field, and the field's offset within that record. */
+    private transient SeparatorIndex separators;
+    private transient int separatorOffset;
+
     public Field() {}
 
     /**
@@ -62,20 +85,59 @@ public class Field implements Serializable {
 
     /**
      * Instantiates a new field.
-     * If parseContents is true, the data will be parsed into occurrences/subfields. If not, the data
-     * will be added to the first occurrence/subfield.
+     * If parseContents is true, the data will be parsed into occurrences/subfields. If lazy, the data
+     * will be parsed the first time the occurrences are accessed, and the field holds on to the provided
+     * array until then. If false, the data will be added to the first occurrence/subfield.
      *
      * @param data the data
      * @param parseContents whether the binary data should be parsed (contains RS/US characters)
      */
     public Field(final byte[] data, final ParseContents parseContents) {
         if (parseContents.equals(ParseContents.TRUE)) {
-            this.occurrences = parseData(data);
+            this.occurrences = parseData(ByteBuffer.wrap(data), false, null, 0);
+        } else if (parseContents.equals(ParseContents.LAZY)) {
+            this.raw = ByteBuffer.wrap(data);
         } else {
             setData(data);
         }
     }
 
+    /**
+     * Instantiates a new field over the remaining bytes of a buffer.
+     * The subfields share the buffer's contents rather than copying them, so a field parsed from
+     * a memory-mapped file does not pull its data onto the heap until {@link SubField#getData()} is called.
+     *
+     * @param data the data
+     * @param parseContents whether the binary data should be parsed (contains RS/US characters), or
+     * {@link ParseContents#EXTERNAL} to leave it where it is, e.g. off the heap
+     */
+    public Field(final ByteBuffer data, final ParseContents parseContents) {
+        if (parseContents.equals(ParseContents.TRUE)) {
+            this.occurrences = parseData(data.slice(), true, null, 0);
+        } else if (parseContents.equals(ParseContents.LAZY)) {
+            this.raw = data.slice();
+        } else if (parseContents.equals(ParseContents.EXTERNAL)) {
+            this.occurrences.add(new Occurrence(data, ParseContents.EXTERNAL));
+        } else {
+            this.occurrences.add(new Occurrence(data, ParseContents.FALSE));
+        }
+    }
+
+    /**
+     * Instantiates a new lazily parsed field over the remaining bytes of a buffer, whose separators have
+     * already been located. When the occurrences are first accessed the field is split using the index
+     * rather than by examining its data again.
+     *
+     * @param data the data
+     * @param separators the separator positions of the record the data was read from
+     * @param offset the index in the record of the first byte of the data
+     */
+    public Field(final ByteBuffer data, final SeparatorIndex separators, final int offset) {
+        this.raw = data.slice();
+        this.separators = separators;
+        this.separatorOffset = offset;
+    }
+
     /**
      * Instantiates a new field.
      *
@@ -94,17 +156,25 @@ public class Field implements Serializable {
     }
 
     public void setData(final byte[] data) {
+        checkNotFrozen();
+        this.raw = null;
+        this.separators = null;
         this.occurrences.clear();
         this.occurrences.add(new Occurrence(data,ParseContents.FALSE));
     }
 
     /**
-     * Gets the occurrences.
+     * Gets the occurrences, parsing them first if the field was created with {@link ParseContents#LAZY}.
      *
      * @return the occurrences
      */
     @NotNull
     public List<Occurrence> getOccurrences() {
+        if (raw != null) {
+            occurrences = parseData(raw.duplicate(), true, separators, separatorOffset);
+            raw = null;
+            separators = null;
+        }
         return occurrences;
     }
 
@@ -114,6 +184,9 @@ public class Field implements Serializable {
      * @param occurrences the new field occurrences
      */
     public void setOccurrences(final List<Occurrence> occurrences) {
+        checkNotFrozen();
+        this.raw = null;
+        this.separators = null;
         this.occurrences = occurrences;
     }
 
@@ -127,7 +200,7 @@ public class Field implements Serializable {
      */
     public String toString(final String occurrenceSeparator, final String subFieldSeparator){
         final StringBuilder sb = new StringBuilder();
-        final Iterator<Occurrence> itr = this.occurrences.listIterator();
+        final Iterator<Occurrence> itr = getOccurrences().listIterator();
         while (itr.hasNext()) {
             sb.append(itr.next().toString(subFieldSeparator));
             if (itr.hasNext()) {
@@ -151,58 +224,255 @@ public class Field implements Serializable {
 
 
     /**
-     * Gets the data in its binary form (including occurrence/subfield seperators)
+     * Gets the data in its binary form (including occurrence/subfield seperators), as a new array
+     * that the caller may modify. Use {@link #getDataLength()}, {@link #getBuffer()} or {@link #writeTo(OutputStream)}
+     * to examine or write out the data without copying it.
      *
      * @return the data
      */
     public byte[] getData() {
-        final ByteArrayOutputStream bbos = new ByteArrayOutputStream();
-        try {
-            for (int occurrenceCount = 0; occurrenceCount < this.occurrences.size(); occurrenceCount++) {
-                bbos.write(this.occurrences.get(occurrenceCount).getData());
-                if (occurrenceCount != this.occurrences.size()-1) {
-                    bbos.write((int) EbtsConstants.SEPARATOR_RECORD);
+        if (raw != null) {
+            final byte[] data = new byte[raw.remaining()];
+            raw.duplicate().get(data);
+            return data;
+        }
+
+        final byte[] cached = serialized();
+        return cached != null ? cached.clone() : serialize();
+    }
+
+    /**
+     * Writes the data in its binary form (including occurrence/subfield separators) to a stream. Data held in a single
+     * subfield (e.g. image data) and lazily parsed data are written straight from where they are held, and the
+     * serialized form of a field with several subfields is reused while they are unchanged, so no intermediate array
+     * is built for an unchanged field.
+     *
+     * @param out the stream
+     * @throws IOException if the stream cannot be written
+     */
+    public void writeTo(@NotNull final OutputStream out) throws IOException {
+        if (raw != null) {
+            ByteBufferUtils.write(raw, out);
+            return;
+        }
+
+        final byte[] cached = serialized();
+        if (cached != null) {
+            out.write(cached);
+            return;
+        }
+        for (int i = 0; i < occurrences.size(); i++) {
+            if (i > 0) {
+                out.write(EbtsConstants.SEPARATOR_RECORD);
+            }
+            occurrences.get(i).writeTo(out);
+        }
+    }
+
+    /**
+     * Returns the serialized form of a field with several subfields, building it if the subfields have changed since
+     * it was last built. A field with at most one subfield is not cached, as its data is already held in one piece,
+     * and nor is a frozen field, which may be read by several threads and so builds a new array each time.
+     *
+     * @return the serialized form, which must not be modified, or null if it is not cached
+     */
+    private byte[] serialized() {
+        if (frozen || (occurrences.size() <= 1 && (occurrences.isEmpty() || occurrences.get(0).getSubFields().size() <= 1))) {
+            serialized = null;
+            return null;
+        }
+        if (serialized == null || !isSerializedCurrent()) {
+            serialized = serialize();
+            snapshotSubFields();
+        }
+        return serialized;
+    }
+
+    /**
+     * @return whether the occurrences still hold the same subfields, unchanged, as when {@link #serialized} was built
+     */
+    private boolean isSerializedCurrent() {
+        if (occurrences.size() != serializedShape.length) {
+            return false;
+        }
+        int index = 0;
+        for (int i = 0; i < occurrences.size(); i++) {
+            final List<SubField> subFields = occurrences.get(i).getSubFields();
+            if (subFields.size() != serializedShape[i]) {
+                return false;
+            }
+            for (final SubField subField : subFields) {
+                if (subField != serializedSubFields[index] || subField.getModCount() != serializedModCounts[index]) {
+                    return false;
                 }
+                index++;
+            }
+        }
+        return true;
+    }
+
+    private void snapshotSubFields() {
+        serializedShape = new int[occurrences.size()];
+        int count = 0;
+        for (int i = 0; i < occurrences.size(); i++) {
+            serializedShape[i] = occurrences.get(i).getSubFields().size();
+            count += serializedShape[i];
+        }
+        serializedSubFields = new SubField[count];
+        serializedModCounts = new int[count];
+        int index = 0;
+        for (final Occurrence occurrence : occurrences) {
+            for (final SubField subField : occurrence.getSubFields()) {
+                serializedSubFields[index] = subField;
+                serializedModCounts[index] = subField.getModCount();
+                index++;
+            }
+        }
+    }
+
+    private byte[] serialize() {
+        //The occurrences are written straight into the result rather than each building an array of its own
+        final byte[] data = new byte[getDataLength()];
+        int position = 0;
+        for (int i = 0; i < occurrences.size(); i++) {
+            if (i > 0) {
+                data[position++] = EbtsConstants.SEPARATOR_RECORD;
             }
-        } catch (final IOException e) {
-            log.error("Error extracting binary data from byte array: {}",e.getMessage());
+            position = occurrences.get(i).copyTo(data, position);
+        }
+        return data;
+    }
+
+    /**
+     * <p>
+     *     Returns a frozen copy of the field, which cannot be changed and so can be read by several threads at once.
+     *     Its occurrences and subfields are frozen copies too, but they share this field's data rather than copying it,
+     *     so arrays that were passed to or returned by this field must not be modified afterwards.
+     * </p>
+     * <p>
+     *     Setters on a frozen field, its occurrences and subfields throw {@link UnsupportedOperationException}, and
+     *     {@link #getData()} returns a new array on each call. Use {@link #getBuffer()} to read the data without copying it.
+     * </p>
+     *
+     * @return the frozen copy, or this field if it is already frozen
+     */
+    public Field freeze() {
+        if (frozen) {
+            return this;
+        }
+        final List<Occurrence> source = getOccurrences();
+        final List<Occurrence> frozenOccurrences = new ArrayList<Occurrence>(source.size());
+        for (final Occurrence occurrence : source) {
+            frozenOccurrences.add(occurrence.freeze());
+        }
+        final Field copy = new Field(Collections.unmodifiableList(frozenOccurrences));
+        copy.frozen = true;
+        return copy;
+    }
+
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    private void checkNotFrozen() {
+        if (frozen) {
+            throw new UnsupportedOperationException("Field is frozen");
+        }
+    }
+
+    /**
+     * Returns the length of {@link #getData()} without building it, e.g. to check whether image data is empty.
+     *
+     * @return the number of bytes of data, including the occurrence/subfield separators
+     */
+    public int getDataLength() {
+        if (raw != null) {
+            return raw.remaining();
+        }
+
+        int length = Math.max(0, occurrences.size() - 1);
+        for (final Occurrence occurrence : occurrences) {
+            length += occurrence.getDataLength();
+        }
+        return length;
+    }
+
+    /**
+     * Returns a read-only view of the data in its binary form. Data held in a single subfield
+     * (e.g. image data) is returned without being copied.
+     *
+     * @return ByteBuffer positioned at the start of the data
+     */
+    public ByteBuffer getBuffer() {
+        if (raw != null) {
+            return raw.asReadOnlyBuffer();
+        }
+        if (this.occurrences.size() == 1 && this.occurrences.get(0).getSubFields().size() == 1) {
+            return this.occurrences.get(0).getSubFields().get(0).getBuffer();
         }
-        return bbos.toByteArray();
+        return ByteBuffer.wrap(getData()).asReadOnlyBuffer();
     }
 
     /**
      * Parses the data.
      *
-     * @param data the data
+     * @param bb the data, which is consumed
+     * @param shared whether the subfields should share the buffer rather than copy out of it
+     * @param separators the separator positions, or null to search the data for them
+     * @param offset the index in the separator index of the start of the buffer
      * @return the list
      */
-    private static List<Occurrence> parseData(final byte[] data) {
+    private static List<Occurrence> parseData(final ByteBuffer bb, final boolean shared, final SeparatorIndex separators, final int offset) {
         final List<Occurrence> occurrences = new ArrayList<Occurrence>();
-        final ByteBuffer bb = ByteBuffer.wrap(data);
-
-        while (bb.hasRemaining()) {
-
-            final int occSep = ByteBufferUtils.find(bb.slice(), EbtsConstants.SEPARATOR_RECORD);
-
-            //No occurrences remaining.
-            if (occSep == -1) {
-                final byte[] value = new byte[bb.remaining()];
-                bb.get(value);
-                occurrences.add(new Occurrence(value,ParseContents.TRUE));
-            } else if (occSep > -1) {
-                final byte[] value = new byte[occSep-1];
-                bb.get(value);
-                occurrences.add(new Occurrence(value,ParseContents.TRUE));
-                bb.position(bb.position()+1);
-                if (!bb.hasRemaining()) {
+
+        //Each byte is examined once: US separators split subfields and RS separators split occurrences
+        final int end = bb.limit();
+        int occurrenceStart = bb.position();
+        int subFieldStart = occurrenceStart;
+        List<SubField> subFields = new ArrayList<SubField>();
+
+        int separator = nextSeparator(bb, occurrenceStart, end, separators, offset);
+        while (separator != -1) {
+            final byte b = bb.get(separator);
+            if (b == EbtsConstants.SEPARATOR_UNIT) {
+                subFields.add(Occurrence.readSubField(bb, subFieldStart, separator, shared));
+                subFieldStart = separator + 1;
+            } else if (b == EbtsConstants.SEPARATOR_RECORD) {
+                //An empty occurrence has no subfields
+                if (separator > occurrenceStart) {
+                    subFields.add(Occurrence.readSubField(bb, subFieldStart, separator, shared));
+                }
+                occurrences.add(new Occurrence(subFields));
+                subFields = new ArrayList<SubField>();
+                occurrenceStart = separator + 1;
+                subFieldStart = occurrenceStart;
+
+                //A trailing RS is followed by an empty occurrence
+                if (occurrenceStart == end) {
                     occurrences.add(new Occurrence());
                 }
             }
+            separator = nextSeparator(bb, separator + 1, end, separators, offset);
+        }
+
+        //No occurrences remaining.
+        if (occurrenceStart < end) {
+            subFields.add(Occurrence.readSubField(bb, subFieldStart, end, shared));
+            occurrences.add(new Occurrence(subFields));
         }
+        bb.position(end);
 
         return occurrences;
     }
 
+    private static int nextSeparator(final ByteBuffer bb, final int from, final int to, final SeparatorIndex separators, final int offset) {
+        if (separators == null) {
+            return ByteBufferUtils.findSeparator(bb, from, to);
+        }
+        final int separator = separators.next(from + offset, to + offset);
+        return separator == -1 ? -1 : separator - offset;
+    }
+
     @Override
     public boolean equals(final Object o) {
         if (this == o) return true;
@@ -210,11 +480,20 @@ public class Field implements Serializable {
 
         final Field field = (Field) o;
 
-        return !(occurrences != null ? !occurrences.equals(field.occurrences) : field.occurrences != null);
+        final List<Occurrence> occurrences = getOccurrences();
+        final List<Occurrence> otherOccurrences = field.getOccurrences();
+        return !(occurrences != null ? !occurrences.equals(otherOccurrences) : otherOccurrences != null);
     }
 
     @Override
     public int hashCode() {
+        final List<Occurrence> occurrences = getOccurrences();
         return occurrences != null ? occurrences.hashCode() : 0;
     }
+
+    /** The undecoded data is not serializable, so the occurrences are built before writing. */
+    private void writeObject(final ObjectOutputStream out) throws IOException {
+        getOccurrences();
+        out.defaultWriteObject();
+    }
 }
@@ -19,14 +19,13 @@ package org.mitre.jet.ebts.field;
 import org.mitre.jet.common.ByteBufferUtils;
 import org.mitre.jet.ebts.EbtsConstants;
 import org.mitre.jet.ebts.ParseContents;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -36,9 +35,11 @@ import java.util.List;
  */
 public class Occurrence implements Serializable {
 
-    private static final Logger log = LoggerFactory.getLogger(Occurrence.class);
     private List<SubField> subFields = new ArrayList<SubField>();
 
+    /** Whether the occurrence belongs to a frozen {@link Field}, so that its subfields cannot change. */
+    private boolean frozen;
+
     public Occurrence() {}
 
     /**
@@ -79,7 +80,25 @@ public class Occurrence implements Serializable {
      */
     public Occurrence(final byte[] data, final ParseContents parseContents) {
         if (parseContents.equals(ParseContents.TRUE)) {
-            this.subFields = parseData(data);
+            this.subFields = parseData(ByteBuffer.wrap(data), false);
+        } else {
+            this.subFields.add(new SubField(data));
+        }
+    }
+
+    /**
+     * Instantiates a new occurrence over the remaining bytes of a buffer.
+     * The subfields share the buffer's contents rather than copying them.
+     *
+     * @param data the data
+     * @param parseContents whether the binary data should be parsed.
+     * i.e. the data contains subfield separator characters
+     */
+    public Occurrence(final ByteBuffer data, final ParseContents parseContents) {
+        if (parseContents.equals(ParseContents.TRUE)) {
+            this.subFields = parseData(data.slice(), true);
+        } else if (parseContents.equals(ParseContents.EXTERNAL)) {
+            this.subFields.add(SubField.external(data));
         } else {
             this.subFields.add(new SubField(data));
         }
@@ -116,80 +135,184 @@ public class Occurrence implements Serializable {
 
     /**
      * Retrieves all of the field data for the occurrence, separated with the
-     * subfield separators.
+     * subfield separators, as a new array that the caller may modify.
      *
      * @return byte subfields containing all of the field data.
      */
     public byte[] getData() {
 
-        final ByteArrayOutputStream bbos = new ByteArrayOutputStream();
-        try {
-            for (int position = 0; position < subFields.size(); position++) {
-                bbos.write(this.subFields.get(position).getData());
-                if (position != subFields.size()-1) {
-                    bbos.write(new byte[] {EbtsConstants.SEPARATOR_UNIT});
-                }
+        final byte[] data = new byte[getDataLength()];
+        copyTo(data, 0);
+        return data;
+    }
+
+    /**
+     * Copies the data of {@link #getData()} into an array without building it separately.
+     *
+     * @param destination the array, with room for {@link #getDataLength()} bytes from the position
+     * @param position the index in the array to copy the data to
+     * @return the index in the array after the data
+     */
+    int copyTo(final byte[] destination, final int position) {
+
+        int next = position;
+        for (int i = 0; i < subFields.size(); i++) {
+            if (i > 0) {
+                destination[next++] = EbtsConstants.SEPARATOR_UNIT;
             }
-        }catch (final IOException ex) {
-            log.error(ex.getMessage());
+            next = subFields.get(i).copyTo(destination, next);
         }
+        return next;
+    }
 
+    /**
+     * Writes the data of {@link #getData()} to a stream without building it.
+     *
+     * @param out the stream
+     * @throws IOException if the stream cannot be written
+     */
+    void writeTo(final OutputStream out) throws IOException {
 
-        return bbos.toByteArray();
+        for (int i = 0; i < subFields.size(); i++) {
+            if (i > 0) {
+                out.write(EbtsConstants.SEPARATOR_UNIT);
+            }
+            subFields.get(i).writeTo(out);
+        }
     }
 
+    /**
+     * Returns the length of {@link #getData()} without building it.
+     *
+     * @return the number of bytes of data, including the subfield separators
+     */
+    public int getDataLength() {
+
+        int length = Math.max(0, subFields.size() - 1);
+        for (final SubField subField : subFields) {
+            length += subField.getLength();
+        }
+        return length;
+    }
 
     /**
      * Clear the occurrence of all data.
      */
     public void clear() {
+        checkNotFrozen();
         subFields.clear();
     }
 
     /**
-     * Parses the data.
+     * Splits the remaining bytes of a buffer into subfields, consuming them.
      *
-     * @param data the data
-     * @return the array list
+     * @param bb the bb
+     * @param shared whether the subfields should share the buffer rather than copy out of it
+     * @return the sub fields
      */
-    private static List<SubField> parseData(final byte[] data) {
+    static List<SubField> parseData(final ByteBuffer bb, final boolean shared) {
 
         final ArrayList<SubField> subFields = new ArrayList<SubField>();
+        parseSubFields(bb, bb.position(), bb.limit(), shared, subFields);
+        bb.position(bb.limit());
+        return subFields;
+    }
+
+    /**
+     * Splits a range of a buffer into subfields at each US. A trailing US is followed by an empty subfield,
+     * and an empty range has no subfields.
+     *
+     * @param bb the bb
+     * @param start the start of the range
+     * @param end the end of the range (exclusive)
+     * @param shared whether the subfields should share the buffer rather than copy out of it
+     * @param subFields the list the subfields are added to
+     */
+    static void parseSubFields(final ByteBuffer bb, final int start, final int end, final boolean shared, final List<SubField> subFields) {
+
+        if (start == end) {
+            return;
+        }
 
-        final ByteBuffer bb = ByteBuffer.wrap(data);
-
-        while (bb.hasRemaining()) {
-
-            final int subFieldSeparator = ByteBufferUtils.find(bb.slice(), EbtsConstants.SEPARATOR_UNIT);
-
-            //If subfieldSep not found, then at end of data
-            if (subFieldSeparator == -1) {
-                final byte[] value = new byte[bb.remaining()];
-                bb.get(value);
-                subFields.add(new SubField(value));
-            } else if (subFieldSeparator > -1) {
-                final byte[] value = new byte[subFieldSeparator-1];
-                bb.get(value); 
-                subFields.add(new SubField(value));
-                bb.position(bb.position()+1);
-                if (!bb.hasRemaining()) {
-                    subFields.add(new SubField());
-                }
+        int subFieldStart = start;
+        int separator = ByteBufferUtils.findSeparator(bb, start, end);
+        while (separator != -1) {
+            if (bb.get(separator) == EbtsConstants.SEPARATOR_UNIT) {
+                subFields.add(readSubField(bb, subFieldStart, separator, shared));
+                subFieldStart = separator + 1;
             }
+            separator = ByteBufferUtils.findSeparator(bb, separator + 1, end);
         }
+        subFields.add(readSubField(bb, subFieldStart, end, shared));
+    }
 
-        return subFields;
+    /**
+     * Reads a range of the buffer into a subfield.
+     *
+     * @param bb the bb
+     * @param start the start of the range
+     * @param end the end of the range (exclusive)
+     * @param shared whether the subfield should refer to the buffer rather than copy out of it. The buffer's
+     *               position and limit may change afterwards, but its contents must not.
+     * @return the sub field
+     */
+    static SubField readSubField(final ByteBuffer bb, final int start, final int end, final boolean shared) {
+
+        if (start == end) {
+            return new SubField();
+        }
+
+        if (shared) {
+            return new SubField(bb, start, end - start);
+        }
+
+        final ByteBuffer value = bb.duplicate();
+        value.limit(end);
+        value.position(start);
+        final byte[] data = new byte[end - start];
+        value.get(data);
+        return new SubField(data);
     }
 
 
+    /**
+     * Gets the subfields.
+     *
+     * @return the subfields
+     */
     public List<SubField> getSubFields() {
         return subFields;
     }
 
     public void setSubfields(final List<SubField> subFields) {
+        checkNotFrozen();
         this.subFields = subFields;
     }
 
+    /**
+     * Returns a frozen copy whose subfields are frozen copies sharing this occurrence's data. See {@link Field#freeze()}.
+     *
+     * @return the frozen copy, or this occurrence if it is already frozen
+     */
+    Occurrence freeze() {
+        if (frozen) {
+            return this;
+        }
+        final List<SubField> frozenSubFields = new ArrayList<SubField>(subFields.size());
+        for (final SubField subField : subFields) {
+            frozenSubFields.add(subField.freeze());
+        }
+        final Occurrence copy = new Occurrence(Collections.unmodifiableList(frozenSubFields));
+        copy.frozen = true;
+        return copy;
+    }
+
+    private void checkNotFrozen() {
+        if (frozen) {
+            throw new UnsupportedOperationException("Occurrence is frozen");
+        }
+    }
+
     @Override
     public boolean equals(final Object o) {
         if (this == o) return true;
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2014 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mitre.jet.ebts.field;
+
+import org.jetbrains.annotations.NotNull;
+import org.mitre.jet.common.ByteBufferUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * <p>
+ *     A bitmap of the positions of every Ebts separator (FS, GS, RS and US) in a logical record, with one bit per byte.
+ *     The record is scanned once, eight bytes at a time, and the separators are then found by walking the bitmap a
+ *     word at a time, so locating the fields of a record and later splitting each field into occurrences and
+ *     subfields does not examine the record's bytes again.
+ * </p>
+ * <p>
+ *     The record is indexed in blocks as the separators are asked for, so the image data at the end of a record
+ *     is not scanned. Once {@link #detach()} is called the buffer is released and only the part already indexed
+ *     can be queried; this is how {@link Field}s keep the index without keeping the record. An index that
+ *     nothing refers to any more can be {@link #reset(ByteBuffer) reset} and used for another record.
+ * </p>
+ */
+public final class SeparatorIndex {
+
+    /** Number of bytes indexed at a time. A multiple of 64. */
+    private static final int BLOCK_SIZE = 512;
+
+    private ByteBuffer buffer;
+    private boolean bigEndian;
+    private long[] bits = new long[BLOCK_SIZE >>> 6];
+    private int indexedTo;
+
+    /**
+     * Creates an index over a buffer, from index 0 to its limit.
+     *
+     * @param buffer the record
+     */
+    public SeparatorIndex(@NotNull final ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.bigEndian = buffer.order() == ByteOrder.BIG_ENDIAN;
+    }
+
+    /**
+     * Returns the index of the first separator at or after {@literal from} and before {@literal to}.
+     *
+     * @param from the index to start from (inclusive)
+     * @param to the index to stop at (exclusive)
+     * @return index (-1 if not found)
+     */
+    public int next(final int from, final int to) {
+
+        if (from >= to) {
+            return -1;
+        }
+
+        int word = from >>> 6;
+        long separators = wordAt(word) & (-1L << from);
+        while (separators == 0) {
+            word++;
+            if (word << 6 >= to) {
+                return -1;
+            }
+            separators = wordAt(word);
+        }
+
+        final int index = (word << 6) + Long.numberOfTrailingZeros(separators);
+        return index < to ? index : -1;
+    }
+
+    /**
+     * Releases the buffer. Parts of the record not yet indexed are treated as having no separators.
+     */
+    public void detach() {
+        buffer = null;
+    }
+
+    /**
+     * Reuses the index for another record, keeping the bitmap allocated for the previous one.
+     * Must not be called while anything still refers to the index of the previous record.
+     *
+     * @param buffer the record
+     */
+    public void reset(@NotNull final ByteBuffer buffer) {
+        Arrays.fill(bits, 0, Math.min(bits.length, (indexedTo + 63) >>> 6), 0L);
+        this.indexedTo = 0;
+        this.buffer = buffer;
+        this.bigEndian = buffer.order() == ByteOrder.BIG_ENDIAN;
+    }
+
+    private long wordAt(final int word) {
+
+        while (word << 6 >= indexedTo && buffer != null && indexedTo < buffer.limit()) {
+            indexBlock();
+        }
+        return word < bits.length ? bits[word] : 0;
+    }
+
+    private void indexBlock() {
+
+        final int start = indexedTo;
+        final int end = Math.min(buffer.limit(), start + BLOCK_SIZE);
+        if (bits.length << 6 < end) {
+            bits = Arrays.copyOf(bits, Math.max(bits.length * 2, (end + 63) >>> 6));
+        }
+
+        int index = start;
+        for (; index + 8 <= end; index += 8) {
+            long separators = ByteBufferUtils.separatorBits(buffer, index, bigEndian);
+            while (separators != 0) {
+                set(index + (Long.numberOfTrailingZeros(separators) >>> 3));
+                separators &= separators - 1;
+            }
+        }
+        for (; index < end; index++) {
+            if ((buffer.get(index) & 0xFC) == 0x1C) {
+                set(index);
+            }
+        }
+
+        indexedTo = end;
+    }
+
+    private void set(final int index) {
+        bits[index >>> 6] |= 1L << index;
+    }
+}
@@ -18,9 +18,14 @@ package org.mitre.jet.ebts.field;
 
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.mitre.jet.common.ByteBufferUtils;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 
@@ -28,6 +33,26 @@ public class SubField implements Serializable {
 
     private byte[] data = new byte[0];
 
+    /**
+     * Buffer holding the data at {@link #offset}, shared with the other subfields of the field or record it was parsed
+     * from and only read with absolute gets. Only set until the data is copied into {@link #data}.
+     */
+    private transient ByteBuffer backing;
+    private transient int offset;
+    private transient int length;
+
+    /** Whether the instance belongs to a frozen {@link Field}, so that its data cannot change. See {@link Field#freeze()}. */
+    private boolean frozen;
+
+    /**
+     * Whether the data is held outside the heap (see {@link org.mitre.jet.ebts.ParseContents#EXTERNAL}), so that it is
+     * copied for each call to {@link #getData()} rather than being moved into a private array.
+     */
+    private transient boolean external;
+
+    /** The number of times the data has been set, so that a {@link Field} can tell whether its serialized form is stale. */
+    private transient int modCount;
+
     /** Creates a new instance of this class. */
     public SubField() {}
 
@@ -53,51 +78,243 @@ public class SubField implements Serializable {
         setData(data);
     }
 
-    /** @return The data associated with this instance. */
+    /**
+     * <p>
+     *     Creates a new instance of this class backed by the remaining bytes of the provided {@literal buffer}.
+     *     The bytes are shared rather than copied; a private copy is only made once {@link #getData()} is called.
+     * </p>
+     * @param buffer The buffer holding the data which will be associated with this instance.
+     */
+    public SubField(@NotNull final ByteBuffer buffer) {
+
+        this(buffer, buffer.position(), buffer.remaining());
+    }
+
+    /**
+     * Creates a new instance backed by a range of a buffer that other subfields may also refer to, so that the
+     * subfields of a parsed field do not each need their own array or buffer.
+     *
+     * @param backing the buffer, whose position and limit are ignored
+     * @param offset the index in the buffer of the first byte of the data
+     * @param length the number of bytes of data
+     */
+    SubField(@NotNull final ByteBuffer backing, final int offset, final int length) {
+
+        this.backing = backing;
+        this.offset = offset;
+        this.length = length;
+        this.data = null;
+    }
+
+    /**
+     * Creates a new instance over the remaining bytes of a buffer held outside the heap, which is never copied
+     * into a private array. See {@link org.mitre.jet.ebts.ParseContents#EXTERNAL}.
+     *
+     * @param buffer the buffer holding the data
+     * @return the new instance
+     */
+    static SubField external(@NotNull final ByteBuffer buffer) {
+
+        final SubField subField = new SubField(buffer);
+        subField.external = true;
+        return subField;
+    }
+
+    /**
+     * Returns the data associated with this instance. If the instance is backed by a shared buffer, the data is
+     * copied into a private array the first time this is called, unless it is held outside the heap, in which
+     * case it is copied each time.
+     *
+     * @return The data associated with this instance.
+     */
     @NotNull
     public byte[] getData() {
 
+        //A frozen instance may be read by several threads, and its data must not be changed through the result
+        if (frozen) {
+            return data != null ? data.clone() : copyBacking();
+        }
+        if (data == null) {
+            if (external) {
+                return copyBacking();
+            }
+            data = copyBacking();
+            backing = null;
+        }
         return data;
     }
 
+    /**
+     * Returns a read-only view of the data associated with this instance without copying it.
+     *
+     * @return ByteBuffer positioned at the start of the data
+     */
+    @NotNull
+    public ByteBuffer getBuffer() {
+
+        if (data == null) {
+            return view().slice();
+        }
+        return ByteBuffer.wrap(data).asReadOnlyBuffer();
+    }
+
+    /** @return The number of bytes associated with this instance. */
+    public int getLength() {
+
+        return data == null ? length : data.length;
+    }
+
     /** Sets the data associated with this instance. */
     public void setData(@NotNull final byte[] data) {
 
+        if (frozen) {
+            throw new UnsupportedOperationException("SubField is frozen");
+        }
         this.data = data;
+        this.backing = null;
+        this.external = false;
+        this.modCount++;
     }
 
     /** Sets the data associated with this instance. */
     public void setData(@NotNull final String data) {
 
-        this.data = data.getBytes(StandardCharsets.UTF_8);
+        setData(data.getBytes(StandardCharsets.UTF_8));
     }
 
     public void setData(@NotNull final String data, @NotNull final String encoding) throws UnsupportedEncodingException {
 
-        this.data = data.getBytes(encoding);
+        setData(data.getBytes(encoding));
     }
 
     public String toString(@NotNull final String encoding) throws UnsupportedEncodingException {
 
-        return new String(data, encoding);
+        return new String(getData(), encoding);
     }
 
     @Override
     public String toString() {
 
+        if (data == null) {
+            if (backing.hasArray()) {
+                return new String(backing.array(), backing.arrayOffset() + offset, length, StandardCharsets.UTF_8);
+            }
+            return StandardCharsets.UTF_8.decode(view()).toString();
+        }
         return new String(data, StandardCharsets.UTF_8);
     }
 
     @Override
     public boolean equals(@Nullable final Object o) {
 
-        return this == o || o instanceof SubField && Arrays.equals(this.data, ((SubField) o).data);
+        if (this == o) return true;
+        if (!(o instanceof SubField)) return false;
+
+        final SubField that = (SubField) o;
 
+        if (this.data != null && that.data != null) {
+            return Arrays.equals(this.data, that.data);
+        }
+        return this.getBuffer().equals(that.getBuffer());
     }
 
+    /**
+     * Computes the same value as {@link Arrays#hashCode(byte[])} regardless of whether the data is held in a private
+     * array or a shared buffer, so that equal instances hash alike.
+     */
     @Override
     public int hashCode() {
 
-        return data != null ? Arrays.hashCode(data) : 0;
+        if (data != null) {
+            return Arrays.hashCode(data);
+        }
+
+        int result = 1;
+        for (int i = offset; i < offset + length; i++) {
+            result = 31 * result + backing.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Returns a frozen copy that shares this instance's data. See {@link Field#freeze()}.
+     *
+     * @return the frozen copy, or this instance if it is already frozen
+     */
+    SubField freeze() {
+
+        if (frozen) {
+            return this;
+        }
+        final SubField copy = data != null ? new SubField(data) : new SubField(backing, offset, length);
+        copy.frozen = true;
+        copy.external = external;
+        return copy;
+    }
+
+    /**
+     * Copies the data into an array, without first copying a shared buffer into a private array.
+     *
+     * @param destination the array, with room for {@link #getLength()} bytes from the position
+     * @param position the index in the array to copy the data to
+     * @return the index in the array after the data
+     */
+    int copyTo(@NotNull final byte[] destination, final int position) {
+
+        if (data != null) {
+            System.arraycopy(data, 0, destination, position, data.length);
+        } else if (backing.hasArray()) {
+            System.arraycopy(backing.array(), backing.arrayOffset() + offset, destination, position, length);
+        } else {
+            view().get(destination, position, length);
+        }
+        return position + getLength();
+    }
+
+    /**
+     * Writes the data to a stream, without first copying a shared buffer into a private array.
+     *
+     * @param out the stream
+     * @throws IOException if the stream cannot be written
+     */
+    void writeTo(@NotNull final OutputStream out) throws IOException {
+
+        if (data != null) {
+            out.write(data);
+        } else if (backing.hasArray()) {
+            out.write(backing.array(), backing.arrayOffset() + offset, length);
+        } else {
+            ByteBufferUtils.write(view(), out);
+        }
+    }
+
+    /** @return the number of times the data has been set */
+    int getModCount() {
+
+        return modCount;
+    }
+
+    private byte[] copyBacking() {
+
+        final byte[] copy = new byte[length];
+        copyTo(copy, 0);
+        return copy;
+    }
+
+    /** @return a read-only view of the shared buffer, positioned at the start of the data and limited to its end */
+    private ByteBuffer view() {
+
+        final ByteBuffer view = backing.asReadOnlyBuffer();
+        view.limit(offset + length).position(offset);
+        return view;
+    }
+
+    /** Shared buffers (e.g. file mappings) are not serializable, so the data is copied when writing. */
+    private void writeObject(final ObjectOutputStream out) throws IOException {
+
+        final ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("data", data != null ? data : copyBacking());
+        fields.put("frozen", frozen);
+        out.writeFields();
     }
 }
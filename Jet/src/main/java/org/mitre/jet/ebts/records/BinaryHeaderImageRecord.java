@@ -74,6 +74,13 @@ public class BinaryHeaderImageRecord extends LogicalRecord implements Serializab
         }
     }
 
+    @NotNull
+    @Override
+    protected LogicalRecord newRecord() {
+
+        return new BinaryHeaderImageRecord(recordType, headerFormat);
+    }
+
     @NotNull
     public int[] getHeaderFormat() {
 
@@ -90,7 +97,7 @@ public class BinaryHeaderImageRecord extends LogicalRecord implements Serializab
 
         final Field dataField = this.getField(headerFormat.length + 1);
 
-        if (dataField == null || dataField.getData() == null || dataField.getData().length <= 0 ) {
+        if (dataField == null || dataField.getDataLength() <= 0) {
             if (isValidImageRecordType(this.recordType)) {
                 final int dataFieldNumber = getImageField();
                 if (dataFieldNumber != -1) {
@@ -106,6 +113,23 @@ public class BinaryHeaderImageRecord extends LogicalRecord implements Serializab
         }
     }
 
+    /**
+     * Get a read-only view of the binary image data without copying it.
+     * @return ByteBuffer containing the fingerprint image data
+     */
+    @NotNull
+    @Override
+    public ByteBuffer getImageBuffer() {
+
+        final Field dataField = this.getField(headerFormat.length + 1);
+
+        if (dataField == null || !dataField.getBuffer().hasRemaining()) {
+            return super.getImageBuffer();
+        } else {
+            return dataField.getBuffer();
+        }
+    }
+
     /**
      * Set the binary image data. (FieldOccurrence number 9)
      * The length will automatically be updated based on the length of the data.
@@ -241,7 +265,7 @@ public class BinaryHeaderImageRecord extends LogicalRecord implements Serializab
      */
     private void updateLength() {
 
-        final int length = this.getHeaderLength() + this.getImageData().length;
+        final int length = this.getHeaderLength() + this.getImageBuffer().remaining();
 
         setField(1, new Field(String.valueOf(length)));
     }
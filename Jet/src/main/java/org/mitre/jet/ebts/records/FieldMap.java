@@ -0,0 +1,313 @@
+/*
+ * Copyright 2014 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mitre.jet.ebts.records;
+
+import org.mitre.jet.ebts.field.Field;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * <p>
+ *     The fields of a {@link LogicalRecord}, keyed by field number and kept in ascending field number order.
+ *     The field numbers are held in a sorted {@code int[]} alongside an array of the fields, so a record costs two
+ *     arrays rather than a boxed key and a tree node per field, and lookups are a binary search.
+ * </p>
+ * <p>
+ *     The map iterates in ascending field number order like the {@link java.util.TreeMap} it replaces, which
+ *     {@link org.mitre.jet.ebts.EbtsBuilder} relies on to write the fields in order. Fields are normally added in
+ *     ascending order while parsing, which appends to the arrays; adding a field out of order shifts the fields after it.
+ *     The {@code int} overloads avoid boxing the field number.
+ * </p>
+ *
+ * @author ADAY
+ */
+public final class FieldMap extends AbstractMap<Integer, Field> implements Serializable {
+
+    private static final int[] EMPTY_KEYS = new int[0];
+    private static final Field[] EMPTY_VALUES = new Field[0];
+
+    private int[] keys = EMPTY_KEYS;
+    private Field[] values = EMPTY_VALUES;
+    private int size;
+    private transient int modCount;
+    private transient Set<Map.Entry<Integer, Field>> entrySet;
+    /** The record told when field 2 (the IDC) is added, replaced or removed, or null if there is none. */
+    private final transient LogicalRecord owner;
+
+    public FieldMap() {
+        this(null);
+    }
+
+    /**
+     * Creates the fields of a record, which is told when its IDC field changes.
+     *
+     * @param owner the record
+     */
+    FieldMap(final LogicalRecord owner) {
+        this.owner = owner;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the field with a field number.
+     *
+     * @param fieldNumber the field number (e.g. 3 for 2.003)
+     * @return the field, or null if there is none
+     */
+    public Field get(final int fieldNumber) {
+
+        final int index = indexOf(fieldNumber);
+        return index >= 0 ? values[index] : null;
+    }
+
+    @Override
+    public Field get(final Object key) {
+        return key instanceof Integer ? get(((Integer) key).intValue()) : null;
+    }
+
+    public boolean containsKey(final int fieldNumber) {
+        return indexOf(fieldNumber) >= 0;
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        return key instanceof Integer && containsKey(((Integer) key).intValue());
+    }
+
+    /**
+     * Adds or replaces the field with a field number.
+     *
+     * @param fieldNumber the field number
+     * @param field the field
+     * @return the field that was replaced, or null if there was none
+     */
+    public Field put(final int fieldNumber, final Field field) {
+
+        //Fields are normally added in order, so check the end before searching
+        int index = size > 0 && keys[size - 1] < fieldNumber ? -(size + 1) : indexOf(fieldNumber);
+        if (index >= 0) {
+            final Field previous = values[index];
+            values[index] = field;
+            idcChanged(fieldNumber);
+            return previous;
+        }
+
+        index = -(index + 1);
+        if (size == keys.length) {
+            final int capacity = Math.max(8, size * 2);
+            keys = Arrays.copyOf(keys, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(values, index, values, index + 1, size - index);
+        keys[index] = fieldNumber;
+        values[index] = field;
+        size++;
+        modCount++;
+        idcChanged(fieldNumber);
+        return null;
+    }
+
+    @Override
+    public Field put(final Integer key, final Field value) {
+        return put(key.intValue(), value);
+    }
+
+    /**
+     * Removes the field with a field number.
+     *
+     * @param fieldNumber the field number
+     * @return the field that was removed, or null if there was none
+     */
+    public Field remove(final int fieldNumber) {
+
+        final int index = indexOf(fieldNumber);
+        if (index < 0) {
+            return null;
+        }
+        final Field previous = values[index];
+        removeAt(index);
+        return previous;
+    }
+
+    @Override
+    public Field remove(final Object key) {
+        return key instanceof Integer ? remove(((Integer) key).intValue()) : null;
+    }
+
+    @Override
+    public void clear() {
+        final boolean hadIdc = containsKey(2);
+        Arrays.fill(values, 0, size, null);
+        size = 0;
+        modCount++;
+        if (hadIdc) {
+            idcChanged(2);
+        }
+    }
+
+    @Override
+    public Set<Map.Entry<Integer, Field>> entrySet() {
+
+        if (entrySet == null) {
+            entrySet = new AbstractSet<Map.Entry<Integer, Field>>() {
+                @Override
+                public Iterator<Map.Entry<Integer, Field>> iterator() {
+                    return new EntryIterator();
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+
+                @Override
+                public void clear() {
+                    FieldMap.this.clear();
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    private int indexOf(final int fieldNumber) {
+        return Arrays.binarySearch(keys, 0, size, fieldNumber);
+    }
+
+    private void removeAt(final int index) {
+
+        final int fieldNumber = keys[index];
+        System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+        System.arraycopy(values, index + 1, values, index, size - index - 1);
+        size--;
+        values[size] = null;
+        modCount++;
+        idcChanged(fieldNumber);
+    }
+
+    private void idcChanged(final int fieldNumber) {
+        if (fieldNumber == 2 && owner != null) {
+            owner.idcChanged();
+        }
+    }
+
+    /**
+     * Iterates the fields in ascending field number order.
+     */
+    private final class EntryIterator implements Iterator<Map.Entry<Integer, Field>> {
+
+        private int next;
+        private int last = -1;
+        private int expectedModCount = modCount;
+
+        @Override
+        public boolean hasNext() {
+            return next < size;
+        }
+
+        @Override
+        public Map.Entry<Integer, Field> next() {
+
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (next >= size) {
+                throw new NoSuchElementException();
+            }
+            last = next++;
+            return new Entry(last);
+        }
+
+        @Override
+        public void remove() {
+
+            if (last < 0) {
+                throw new IllegalStateException();
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            removeAt(last);
+            next = last;
+            last = -1;
+            expectedModCount = modCount;
+        }
+    }
+
+    /**
+     * A field of the map. Setting its value replaces the field in the map.
+     */
+    private final class Entry implements Map.Entry<Integer, Field> {
+
+        private final int key;
+        private Field value;
+
+        private Entry(final int index) {
+            this.key = keys[index];
+            this.value = values[index];
+        }
+
+        @Override
+        public Integer getKey() {
+            return key;
+        }
+
+        @Override
+        public Field getValue() {
+            return value;
+        }
+
+        @Override
+        public Field setValue(final Field field) {
+
+            final Field previous = value;
+            put(key, field);
+            value = field;
+            return previous;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+
+            if (!(o instanceof Map.Entry)) return false;
+            final Map.Entry<?, ?> that = (Map.Entry<?, ?>) o;
+            return getKey().equals(that.getKey()) && (value == null ? that.getValue() == null : value.equals(that.getValue()));
+        }
+
+        @Override
+        public int hashCode() {
+            return key ^ (value == null ? 0 : value.hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + value;
+        }
+    }
+}
@@ -22,6 +22,7 @@ import org.mitre.jet.ebts.ParseContents;
 import org.mitre.jet.ebts.field.Field;
 
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 
 
 /**
@@ -60,6 +61,13 @@ public class GenericRecord extends LogicalRecord implements Serializable {
         }
     }
 
+    @NotNull
+    @Override
+    protected LogicalRecord newRecord() {
+
+        return new GenericRecord(recordType);
+    }
+
     /**
      * Set the image data for the record.
      *
@@ -68,7 +76,21 @@ public class GenericRecord extends LogicalRecord implements Serializable {
     public void setImageData(@NotNull final byte[] data) {
 
         if (isValidImageRecordType(this.getRecordType())) {
-            this.fields.put(999, new Field(data, ParseContents.FALSE));
+            setField(999, new Field(data, ParseContents.FALSE));
+        } else {
+            throw new UnsupportedOperationException("Record Type cannot contain image data");
+        }
+    }
+
+    /**
+     * Set the image data for the record without copying it.
+     *
+     * @param data Buffer containing the image data
+     */
+    public void setImageData(@NotNull final ByteBuffer data) {
+
+        if (isValidImageRecordType(this.getRecordType())) {
+            setField(999, new Field(data, ParseContents.FALSE));
         } else {
             throw new UnsupportedOperationException("Record Type cannot contain image data");
         }
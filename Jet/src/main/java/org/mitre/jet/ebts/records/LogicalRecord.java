@@ -18,6 +18,7 @@ package org.mitre.jet.ebts.records;
 
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.mitre.jet.common.ByteBufferInputStream;
 import org.mitre.jet.ebts.EbtsUtils;
 import org.mitre.jet.ebts.ParseContents;
 import org.mitre.jet.ebts.field.Field;
@@ -25,9 +26,13 @@ import org.mitre.jet.exceptions.EbtsHandlingException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.InputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
 
 /**
  * The Class LogicalRecord.
@@ -38,9 +43,29 @@ public abstract class LogicalRecord implements Serializable, Comparable<LogicalR
 
     private static final Logger log = LoggerFactory.getLogger(LogicalRecord.class);
 
-    protected final Map<Integer,Field> fields = new TreeMap<Integer,Field>();
+    protected final FieldMap fields = new FieldMap(this);
     protected final int recordType;
 
+    /** Whether the record has been frozen. See {@link #freeze()}. */
+    private boolean frozen;
+
+    /** The listeners told when the IDC changes, or null if there are none. */
+    private transient List<IdcListener> idcListeners;
+
+    /**
+     * Told when field 2 (the IDC) of a record is added, replaced or removed, e.g. by {@link #setIdc(int)} or through
+     * {@link #getFields()}. Changes made in place to the subfields of the field are not seen.
+     */
+    public interface IdcListener {
+
+        /**
+         * Called after the IDC of a record has been set or removed.
+         *
+         * @param record the record
+         */
+        void idcChanged(LogicalRecord record);
+    }
+
     public LogicalRecord(final int recordType){
 
         this.recordType = recordType;
@@ -92,6 +117,43 @@ public abstract class LogicalRecord implements Serializable, Comparable<LogicalR
         this.setField(2, new Field(String.format("%02d", idc)));
     }
 
+    /**
+     * Adds a listener to be told when the IDC of the record changes.
+     *
+     * @param listener the listener
+     */
+    public void addIdcListener(@NotNull final IdcListener listener) {
+
+        if (idcListeners == null) {
+            idcListeners = new ArrayList<IdcListener>(1);
+        }
+        idcListeners.add(listener);
+    }
+
+    /**
+     * Removes a listener added with {@link #addIdcListener(IdcListener)}.
+     *
+     * @param listener the listener
+     */
+    public void removeIdcListener(@NotNull final IdcListener listener) {
+
+        if (idcListeners != null) {
+            idcListeners.remove(listener);
+        }
+    }
+
+    /**
+     * Called by {@link FieldMap} when field 2 is added, replaced or removed.
+     */
+    void idcChanged() {
+
+        if (idcListeners != null) {
+            for (final IdcListener listener : new ArrayList<IdcListener>(idcListeners)) {
+                listener.idcChanged(this);
+            }
+        }
+    }
+
     /**
      * Retrieve the length of the record.
      * 
@@ -102,12 +164,12 @@ public abstract class LogicalRecord implements Serializable, Comparable<LogicalR
     /**
      * Return all of the fieldOccurrences in the record.
      *
-     * @return TreeMap containing all of the Fields.
+     * @return Map containing all of the Fields, in field number order.
      */
     @NotNull
     public Map<Integer,Field> getFields() {
 
-        return this.fields;
+        return frozen ? Collections.unmodifiableMap(this.fields) : this.fields;
     }
 
     /**
@@ -149,6 +211,7 @@ public abstract class LogicalRecord implements Serializable, Comparable<LogicalR
      */
     public void setField(final int fieldNumber, @NotNull final Field field) {
 
+        checkNotFrozen();
         this.fields.put(fieldNumber, field);
     }
 
@@ -183,7 +246,9 @@ public abstract class LogicalRecord implements Serializable, Comparable<LogicalR
     }
 
     /**
-     * Get the image data for the record.
+     * Get the image data for the record. Image data held outside the heap (see
+     * {@link org.mitre.jet.ebts.ImagePayloadStore}) is copied onto the heap on each call; use
+     * {@link #getImageBuffer()} or {@link #getImageStream()} to read it in place.
      *
      * @return byte array contains the image data, or a zero-length byte if no data exists.
      */
@@ -206,6 +271,41 @@ public abstract class LogicalRecord implements Serializable, Comparable<LogicalR
         return new byte[0];
     }
 
+    /**
+     * Get a read-only view of the image data for the record. Unlike {@link #getImageData()}, image data that
+     * was parsed from a shared buffer (e.g. a memory-mapped file) is not copied onto the heap.
+     *
+     * @return ByteBuffer containing the image data, or an empty buffer if no data exists.
+     */
+    @NotNull
+    public ByteBuffer getImageBuffer() {
+
+        if (isValidImageRecordType(this.recordType)) {
+            final int dataField = getImageField();
+            if (dataField != -1) {
+                final Field imageField = this.fields.get(dataField);
+
+                if (imageField != null) {
+                    return imageField.getBuffer();
+                }
+            }
+        }
+
+        return ByteBuffer.allocate(0).asReadOnlyBuffer();
+    }
+
+    /**
+     * Get a stream of the image data for the record, read from wherever it is held without copying all of it
+     * onto the heap, e.g. to write an image held in an {@link org.mitre.jet.ebts.ImagePayloadStore} to a file.
+     *
+     * @return InputStream of the image data, which is empty if no data exists.
+     */
+    @NotNull
+    public InputStream getImageStream() {
+
+        return new ByteBufferInputStream(getImageBuffer());
+    }
+
     /**
      * Returns whether a field has image data.
      *
@@ -217,7 +317,7 @@ public abstract class LogicalRecord implements Serializable, Comparable<LogicalR
 
         final int dataField = getImageField();
 
-        return dataField > 0 && hasField(dataField) && getField(dataField).getData().length > 0;
+        return dataField > 0 && hasField(dataField) && getField(dataField).getDataLength() > 0;
     }
 
     public boolean isImageRecord() {
@@ -243,12 +343,96 @@ public abstract class LogicalRecord implements Serializable, Comparable<LogicalR
         if (isValidImageRecordType(this.recordType)) {
             final int fieldNumber = getImageField();
             log.debug("Setting image data for field #:" + fieldNumber);
-            this.fields.put(fieldNumber, new Field(data, ParseContents.FALSE));
+            setField(fieldNumber, new Field(data, ParseContents.FALSE));
         } else {
             throw new UnsupportedOperationException("Unable to store image data in a type-"+this.getRecordType()+" record");
         }
     }
 
+    /**
+     * <p>
+     *     Returns a frozen copy of the record, which cannot be changed and so can be read by several threads at once.
+     *     Its fields are {@link Field#freeze() frozen} copies that share this record's data, including its image data.
+     * </p>
+     * <p>
+     *     Setters on a frozen record throw {@link UnsupportedOperationException}. Use {@link #withField(int, Field)}
+     *     to make a changed copy.
+     * </p>
+     *
+     * @return the frozen copy, or this record if it is already frozen
+     * @throws UnsupportedOperationException if the record's class does not override {@link #newRecord()}
+     */
+    @NotNull
+    public LogicalRecord freeze() {
+
+        return frozen ? this : copy(true);
+    }
+
+    /**
+     * Returns a mutable copy of the record. Its fields are shared with this record, so if this record is frozen
+     * they remain frozen and are changed by replacing them with {@link #setField(int, Field)}.
+     *
+     * @return the copy
+     * @throws UnsupportedOperationException if the record's class does not override {@link #newRecord()}
+     */
+    @NotNull
+    public LogicalRecord thaw() {
+
+        return copy(false);
+    }
+
+    /**
+     * Returns a frozen copy of the record with one field added or replaced. The copy shares the record's other fields.
+     *
+     * @param fieldNumber the field number
+     * @param field the field
+     * @return the frozen copy
+     */
+    @NotNull
+    public LogicalRecord withField(final int fieldNumber, @NotNull final Field field) {
+
+        final LogicalRecord copy = copy(true);
+        copy.fields.put(fieldNumber, field.freeze());
+        return copy;
+    }
+
+    public boolean isFrozen() {
+
+        return frozen;
+    }
+
+    /**
+     * Creates an empty record of the same class and type as this one, for {@link #freeze()} and {@link #thaw()} to copy
+     * the fields into. Subclasses override this to support freezing; by default it is unsupported, so that existing
+     * subclasses still compile and only fail if they are frozen or thawed.
+     *
+     * @return the new record
+     * @throws UnsupportedOperationException if the subclass does not support freezing
+     */
+    @NotNull
+    protected LogicalRecord newRecord() {
+
+        throw new UnsupportedOperationException(getClass().getName() + " does not support freeze() or thaw()");
+    }
+
+    protected void checkNotFrozen() {
+
+        if (frozen) {
+            throw new UnsupportedOperationException("Record is frozen");
+        }
+    }
+
+    private LogicalRecord copy(final boolean freeze) {
+
+        final LogicalRecord copy = newRecord();
+        for (final Map.Entry<Integer, Field> entry : this.fields.entrySet()) {
+            final Field field = entry.getValue();
+            copy.fields.put(entry.getKey().intValue(), freeze && field != null ? field.freeze() : field);
+        }
+        copy.frozen = freeze;
+        return copy;
+    }
+
     protected static boolean isValidImageRecordType(final int recordType) {
 
         return recordType != 1 && recordType != 2 && recordType != 9;
@@ -18,10 +18,12 @@ package org.mitre.jet.ebts;
 
 import org.junit.Test;
 import org.mitre.jet.common.ByteBufferUtils;
+import org.mitre.jet.ebts.field.SeparatorIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 import static org.junit.Assert.assertEquals;
 
@@ -54,4 +56,55 @@ public class ByteBufferUtilsTest {
 
     }
 
+    @Test
+    public void testFindSeparator() throws Exception {
+
+        byte[] data = new byte[100];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (0x20 + i);
+        }
+
+        for (byte separator = 0x1c; separator <= 0x1f; separator++) {
+            for (int position = 0; position < data.length; position++) {
+                byte[] copy = data.clone();
+                copy[position] = separator;
+
+                for (ByteBuffer bb : new ByteBuffer[]{ByteBuffer.wrap(copy), ByteBuffer.wrap(copy).order(ByteOrder.LITTLE_ENDIAN),
+                        ByteBuffer.allocateDirect(copy.length).put(copy)}) {
+                    assertEquals(position, ByteBufferUtils.findSeparator(bb, 0, copy.length));
+                    assertEquals(position, ByteBufferUtils.findSeparator(bb, position, copy.length));
+                    assertEquals(-1, ByteBufferUtils.findSeparator(bb, 0, position));
+                    assertEquals(-1, ByteBufferUtils.findSeparator(bb, position + 1, copy.length));
+                }
+            }
+        }
+
+        //Bytes next to the separators are not matched
+        byte[] near = {0x1b, 0x20, 0x3c, (byte) 0x9c, (byte) 0xdf, 0x1b, 0x20, 0x5d, 0x1e};
+        assertEquals(8, ByteBufferUtils.findSeparator(ByteBuffer.wrap(near), 0, near.length));
+    }
+
+    @Test
+    public void testSeparatorIndex() throws Exception {
+
+        //Spans several index blocks, with separators either side of the block and word boundaries
+        byte[] data = new byte[2000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i % 61 == 0 || i % 512 == 511 || i % 64 == 0 ? 0x1c + (i & 3) : 0x30 + (i % 40));
+        }
+        ByteBuffer bb = ByteBuffer.wrap(data);
+        SeparatorIndex index = new SeparatorIndex(bb);
+
+        for (int from = 0; from < data.length; from += 7) {
+            for (int to : new int[]{from, from + 1, from + 63, from + 600, data.length}) {
+                int limit = Math.min(to, data.length);
+                assertEquals(ByteBufferUtils.findSeparator(bb, from, limit), index.next(from, limit));
+            }
+        }
+
+        //Once detached, the part already indexed can still be queried
+        index.detach();
+        assertEquals(ByteBufferUtils.findSeparator(bb, 1, data.length), index.next(1, data.length));
+    }
+
 }
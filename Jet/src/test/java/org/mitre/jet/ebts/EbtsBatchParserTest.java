@@ -0,0 +1,81 @@
+/*
+ * Copyright 2014 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mitre.jet.ebts;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * The Class EbtsBatchParserTest.
+ */
+public class EbtsBatchParserTest {
+
+    @Test
+    public void batchTest() throws Exception {
+        Path sample = new File(ClassLoader.getSystemResource("EFT/sample.eft").toURI()).toPath();
+        Ebts expected = EbtsParser.parse(sample.toFile(), ParseSpec.builder().build());
+
+        File invalid = File.createTempFile("invalid", ".eft");
+        invalid.deleteOnExit();
+        Files.write(invalid.toPath(), "1.001:abc".getBytes());
+        File missing = new File(invalid.getParentFile(), invalid.getName() + ".missing");
+
+        List<Path> paths = new ArrayList<Path>();
+        for (int i = 0; i < 4; i++) {
+            paths.add(sample);
+        }
+        paths.add(invalid.toPath());
+        paths.add(missing.toPath());
+
+        //A budget smaller than any file still allows one file at a time
+        for (long budget : new long[]{1, Long.MAX_VALUE}) {
+            EbtsBatchParser batch = EbtsBatchParser.parseAll(paths, ParseSpec.builder().build(), 3, budget);
+            int parsed = 0;
+            Set<Path> failures = new HashSet<Path>();
+            try {
+                while (batch.hasNext()) {
+                    EbtsBatchParser.Result result = batch.next();
+                    if (result.isSuccess()) {
+                        assertEquals(expected.getAllRecords(), result.getEbts().getAllRecords());
+                        parsed++;
+                    } else {
+                        assertNull(result.getEbts());
+                        assertNotNull(result.getError());
+                        failures.add(result.getPath());
+                    }
+                }
+            } finally {
+                batch.close();
+            }
+            assertEquals(4, parsed);
+            assertEquals(2, failures.size());
+            assertFalse(batch.hasNext());
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2014 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mitre.jet.ebts;
+
+import com.google.common.io.Files;
+import org.junit.Test;
+import org.mitre.jet.ebts.field.Field;
+import org.mitre.jet.ebts.records.LogicalRecord;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The Class EbtsHandlerTest.
+ */
+public class EbtsHandlerTest {
+
+    /**
+     * Checks each event against the records built by the tree parser.
+     */
+    private static class CompareHandler implements EbtsHandler {
+
+        private final List<LogicalRecord> records;
+        private final int skipType;
+        private int index;
+        private int fields;
+        private int images;
+
+        CompareHandler(final Ebts ebts, final int skipType) {
+            this.records = new ArrayList<LogicalRecord>(ebts.getAllRecords());
+            this.skipType = skipType;
+        }
+
+        @Override
+        public boolean startRecord(final int recordType, final int idc) {
+            assertEquals(records.get(index).getRecordType(), recordType);
+            return recordType != skipType;
+        }
+
+        @Override
+        public void field(final int fieldNumber, final ByteBuffer value) {
+            assertTrue(value.isReadOnly());
+            assertEquals(records.get(index).getField(fieldNumber).toString(), toString(value));
+            fields++;
+        }
+
+        @Override
+        public void imageData(final int fieldNumber, final ByteBuffer data) {
+            assertTrue(data.isReadOnly());
+            final byte[] bytes = new byte[data.remaining()];
+            data.get(bytes);
+            assertArrayEquals(records.get(index).getImageData(), bytes);
+            images++;
+        }
+
+        @Override
+        public boolean endRecord(final int recordType) {
+            index++;
+            return true;
+        }
+
+        private static String toString(final ByteBuffer value) {
+            final byte[] bytes = new byte[value.remaining()];
+            value.duplicate().get(bytes);
+            return new Field(bytes, ParseContents.TRUE).toString();
+        }
+    }
+
+    @Test
+    public void handlerTest() throws Exception {
+        File file = new File(ClassLoader.getSystemResource("EFT/sample.eft").toURI());
+        byte[] data = Files.toByteArray(file);
+        Ebts ebts = EbtsParser.parse(data);
+
+        CompareHandler handler = new CompareHandler(ebts, -1);
+        EbtsParser.parse(data, handler);
+
+        assertEquals(ebts.getAllRecords().size(), handler.index);
+        assertEquals(11, handler.images);
+        assertTrue(handler.fields > 0);
+    }
+
+    @Test
+    public void skipTest() throws Exception {
+        File file = new File(ClassLoader.getSystemResource("EFT/sample.eft").toURI());
+        byte[] data = Files.toByteArray(file);
+        Ebts ebts = EbtsParser.parse(data);
+
+        CompareHandler handler = new CompareHandler(ebts, 4);
+        EbtsParser.parse(ByteBuffer.wrap(data).asReadOnlyBuffer(), handler, Type7Handling.TREAT_AS_TYPE4);
+
+        assertEquals(ebts.getAllRecords().size(), handler.index);
+        assertEquals(1, handler.images);
+    }
+
+    @Test
+    public void stopTest() throws Exception {
+        File file = new File(ClassLoader.getSystemResource("EFT/sample.eft").toURI());
+        final List<Integer> types = new ArrayList<Integer>();
+
+        EbtsParser.parse(Files.toByteArray(file), new EbtsHandler() {
+            @Override
+            public boolean startRecord(final int recordType, final int idc) {
+                types.add(recordType);
+                return true;
+            }
+
+            @Override
+            public void field(final int fieldNumber, final ByteBuffer value) {}
+
+            @Override
+            public void imageData(final int fieldNumber, final ByteBuffer data) {}
+
+            @Override
+            public boolean endRecord(final int recordType) {
+                return recordType != 2;
+            }
+        });
+
+        assertEquals(2, types.size());
+        assertEquals(Integer.valueOf(2), types.get(1));
+    }
+}
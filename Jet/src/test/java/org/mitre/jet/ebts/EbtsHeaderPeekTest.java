@@ -0,0 +1,86 @@
+/*
+ * Copyright 2014 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mitre.jet.ebts;
+
+import org.junit.Test;
+import org.mitre.jet.ebts.records.LogicalRecord;
+import org.mitre.jet.exceptions.EbtsParsingException;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * The Class EbtsHeaderPeekTest.
+ */
+public class EbtsHeaderPeekTest {
+
+    @Test
+    public void peekTest() throws Exception {
+        File file = new File(ClassLoader.getSystemResource("EFT/sample.eft").toURI());
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        LogicalRecord type1 = EbtsParser.parse(bytes).getRecordsByType(1).get(0);
+
+        EbtsHeaderPeek header = EbtsHeaderPeek.peek(bytes);
+        assertEquals(Integer.parseInt(type1.getField(2).toString()), header.getVersion());
+        assertEquals(type1.getField(4).toString(), header.getTransactionType());
+        assertEquals(type1.getField(7).toString(), header.getDestinationAgency());
+        assertEquals(type1.getField(8).toString(), header.getOriginatingAgency());
+        assertEquals(type1.getField(9).toString(), header.getTransactionControlNumber());
+        assertEquals(Integer.parseInt(type1.getField(1).toString()), header.getLength());
+
+        //A buffer is read from its position, which is left alone
+        ByteBuffer buffer = ByteBuffer.allocate(bytes.length + 5);
+        buffer.position(5);
+        buffer.put(bytes);
+        buffer.position(5);
+        assertEquals(header.toString(), EbtsHeaderPeek.peek(buffer).toString());
+        assertEquals(5, buffer.position());
+
+        //Only the Type-1 is consumed from a channel
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            assertEquals(header.toString(), EbtsHeaderPeek.peek(channel).toString());
+            assertEquals(header.getLength(), channel.position());
+        } finally {
+            in.close();
+        }
+
+        try {
+            EbtsHeaderPeek.peek("1.001:abc".getBytes());
+            fail("Expected an EbtsParsingException");
+        } catch (final EbtsParsingException expected) {
+            //expected
+        }
+
+        //A LEN far beyond any real Type-1 is rejected rather than allocated
+        try {
+            EbtsHeaderPeek.peek(Channels.newChannel(new ByteArrayInputStream("1.001:999999999\u001D1.002:0502\u001D".getBytes())));
+            fail("Expected an EbtsParsingException");
+        } catch (final EbtsParsingException expected) {
+            //expected
+        }
+    }
+}
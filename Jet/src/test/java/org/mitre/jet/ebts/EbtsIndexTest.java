@@ -0,0 +1,75 @@
+/*
+ * Copyright 2014 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mitre.jet.ebts;
+
+import com.google.common.io.Files;
+import org.junit.Test;
+import org.mitre.jet.ebts.records.LogicalRecord;
+import org.mitre.jet.exceptions.EbtsParsingException;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * The Class EbtsIndexTest.
+ */
+public class EbtsIndexTest {
+
+    @Test
+    public void indexTest() throws Exception {
+        File file = new File(ClassLoader.getSystemResource("EFT/sample.eft").toURI());
+        byte[] data = Files.toByteArray(file);
+        Ebts ebts = EbtsParser.parse(data);
+
+        for (EbtsIndex index : new EbtsIndex[]{EbtsIndex.build(data), EbtsIndex.build(file)}) {
+            List<EbtsIndex.Entry> entries = index.getEntries();
+            assertEquals(ebts.getAllRecords().size(), entries.size());
+
+            //Records are contiguous and cover the whole file
+            int offset = 0;
+            for (EbtsIndex.Entry entry : entries) {
+                assertEquals(offset, entry.getOffset());
+                offset += entry.getLength();
+            }
+            assertEquals(data.length, offset);
+
+            List<EbtsIndex.Entry> type4s = index.getEntries(4);
+            assertEquals(ebts.getRecordsByType(4).size(), type4s.size());
+            for (int i = 0; i < type4s.size(); i++) {
+                assertEquals(ebts.getRecordsByType(4).get(i), index.parseRecord(type4s.get(i)));
+            }
+
+            LogicalRecord type10 = ebts.getRecordsByType(10).get(0);
+            int idc = Integer.parseInt(type10.getField(2).toString());
+            assertEquals(type10, index.parseRecord(index.getEntry(10, idc)));
+            assertEquals(ebts.getRecordsByType(1).get(0), index.parseRecord(entries.get(0)));
+            assertNull(index.getEntry(14, 3));
+        }
+    }
+
+    @Test(expected = EbtsParsingException.class)
+    public void truncatedTest() throws Exception {
+        File file = new File(ClassLoader.getSystemResource("EFT/S001-01-t10_01.eft").toURI());
+        byte[] data = Files.toByteArray(file);
+
+        EbtsIndex.build(Arrays.copyOf(data, data.length - 100));
+    }
+}
@@ -16,14 +16,23 @@
 
 package org.mitre.jet.ebts;
 
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
 import org.junit.Test;
+import org.mitre.jet.ebts.field.Field;
 import org.mitre.jet.ebts.records.GenericRecord;
 import org.mitre.jet.ebts.records.LogicalRecord;
+import org.mitre.jet.exceptions.EbtsParsingException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static org.junit.Assert.*;
 
@@ -130,6 +139,26 @@ public class EbtsParserTest {
 
     }
 
+    @Test
+    public void descriptiveOnlyReadsType1And2Test() throws Exception {
+        File file = new File(ClassLoader.getSystemResource("EFT/sample.eft").toURI());
+        byte[] data = Files.toByteArray(file);
+        EbtsIndex index = EbtsIndex.build(data);
+
+        //Only the Type-1 and Type-2 are read, so the rest of the file can be missing
+        EbtsIndex.Entry type2 = index.getEntries(2).get(0);
+        File truncated = File.createTempFile("descriptive", ".eft");
+        try {
+            Files.write(Arrays.copyOf(data, type2.getOffset() + type2.getLength()), truncated);
+
+            Ebts ebts = EbtsParser.parse(truncated, ParseType.DESCRIPTIVE_ONLY);
+            assertEquals(2, ebts.getAllRecords().size());
+            assertEquals(EbtsParser.parse(data).getRecordsByType(2), ebts.getRecordsByType(2));
+        } finally {
+            assertTrue(truncated.delete());
+        }
+    }
+
     @Test
     public void type10EmptyImageTest() throws Exception {
         File file = new File(ClassLoader.getSystemResource("EFT/empty_image.eft").toURI());
@@ -145,6 +174,382 @@ public class EbtsParserTest {
         assertFalse(type10.hasImageData());
     }
 
+    @Test
+    public void mappedParseTest() throws Exception {
+        File file = new File(ClassLoader.getSystemResource("EFT/sample.eft").toURI());
+
+        Ebts heapEbts = EbtsParser.parse(file);
+        Ebts mappedEbts = EbtsParser.parseMapped(file);
+
+        List<LogicalRecord> heapRecords = heapEbts.getAllRecords();
+        List<LogicalRecord> mappedRecords = mappedEbts.getAllRecords();
+        assertEquals(heapRecords.size(), mappedRecords.size());
+        for (int i = 0; i < heapRecords.size(); i++) {
+            assertEquals(heapRecords.get(i), mappedRecords.get(i));
+        }
+
+        LogicalRecord type4 = mappedEbts.getRecordsByType(4).get(0);
+        ByteBuffer imageBuffer = type4.getImageBuffer();
+        assertTrue(imageBuffer.isReadOnly());
+        assertEquals(heapEbts.getRecordsByType(4).get(0).getImageData().length, imageBuffer.remaining());
+        assertArrayEquals(heapEbts.getRecordsByType(4).get(0).getImageData(), type4.getImageData());
+    }
+
+    @Test
+    public void invalidTagTest() throws Exception {
+        File file = new File(ClassLoader.getSystemResource("EFT/S001-01-t10_01.eft").toURI());
+        byte[] data = Files.toByteArray(file);
+        String text = new String(data, "ISO-8859-1");
+
+        int tag = text.indexOf("2.002:");
+        data[tag + 3] = 'X';
+        try {
+            EbtsParser.parse(data);
+            fail();
+        } catch (EbtsParsingException e) {
+            assertEquals(2, e.getRecord());
+        }
+    }
+
+    @Test
+    public void parseSpecTest() throws Exception {
+        File file = new File(ClassLoader.getSystemResource("EFT/sample.eft").toURI());
+        Ebts ebts = EbtsParser.parse(file);
+
+        ParseSpec spec = ParseSpec.builder()
+                .fields(2, 18, 22)
+                .fields(10, 999)
+                .build();
+        Ebts selected = EbtsParser.parse(file, spec);
+
+        //Type 4s are skipped
+        assertFalse(selected.containsRecord(4));
+        assertEquals(ebts.getRecordsByType(1), selected.getRecordsByType(1));
+
+        LogicalRecord type2 = selected.getRecordsByType(2).get(0);
+        for (Integer fieldNumber : type2.getFields().keySet()) {
+            assertTrue(fieldNumber <= 2 || fieldNumber == 18 || fieldNumber == 22);
+            assertEquals(ebts.getRecordsByType(2).get(0).getField(fieldNumber), type2.getField(fieldNumber));
+        }
+
+        LogicalRecord type10 = selected.getRecordsByType(10).get(0);
+        assertEquals(3, type10.getFields().size());
+        assertArrayEquals(ebts.getRecordsByType(10).get(0).getImageData(), type10.getImageData());
+
+        Ebts excluded = EbtsParser.parse(file, ParseSpec.builder().excludeRecordTypes(4, 14).build());
+        assertEquals(ebts.getAllRecords().size() - ebts.getRecordsByType(4).size(), excluded.getAllRecords().size());
+        assertEquals(ebts.getRecordsByType(10), excluded.getRecordsByType(10));
+    }
+
+    @Test
+    public void parallelParseTest() throws Exception {
+        File file = new File(ClassLoader.getSystemResource("EFT/sample.eft").toURI());
+        byte[] data = Files.toByteArray(file);
+        Ebts ebts = EbtsParser.parse(data);
+
+        assertEquals(ebts.getAllRecords(), EbtsParser.parseParallel(data, ParseSpec.builder().build()).getAllRecords());
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Ebts parallel = EbtsParser.parseParallel(ByteBuffer.wrap(data), ParseSpec.of(ParseType.DESCRIPTIVE_ONLY, Type7Handling.TREAT_AS_TYPE4), executor);
+            assertEquals(2, parallel.getAllRecords().size());
+            assertEquals(ebts.getRecordsByType(2), parallel.getRecordsByType(2));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void type7FlexTest() throws Exception {
+        ParseSpec flex = ParseSpec.of(ParseType.FULL, Type7Handling.FLEX);
+
+        //Type-4 style header (500x500, WSQ) followed by a CBEFF wrapper around the image
+        byte[] wsq = {(byte) 0xFF, (byte) 0xA0, (byte) 0xFF, (byte) 0xA8, 0, 2, 1, 2};
+        ByteBuffer type4 = ByteBuffer.allocate(18 + 10 + wsq.length);
+        type4.putInt(type4.capacity()).put((byte) 1).put((byte) 0);
+        type4.put(new byte[]{(byte) 255, (byte) 255, (byte) 255, (byte) 255, (byte) 255, (byte) 255});
+        type4.put((byte) 0).putShort((short) 500).putShort((short) 500).put((byte) 1);
+        type4.put(new byte[10]).put(wsq);
+
+        LogicalRecord record = EbtsParser.parseRecord(7, ByteBuffer.wrap(type4.array()), flex, false);
+        assertArrayEquals(wsq, record.getImageData());
+        assertEquals("500", record.getField(6).toString());
+
+        //NIST header (LEN and IDC only) followed directly by a JPEG
+        byte[] jpg = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0, 0, 16, 'J', 'F', 'I', 'F', 0, 1, 1, 0, 0, 1, 0, 1, 0, 0};
+        ByteBuffer nist = ByteBuffer.allocate(5 + jpg.length);
+        nist.putInt(nist.capacity()).put((byte) 1).put(jpg);
+
+        record = EbtsParser.parseRecord(7, ByteBuffer.wrap(nist.array()), flex, false);
+        assertArrayEquals(jpg, record.getImageData());
+        assertEquals("1", record.getField(2).toString());
+    }
+
+    @Test
+    public void reusableParserTest() throws Exception {
+        File file = new File(ClassLoader.getSystemResource("EFT/sample.eft").toURI());
+        byte[] data = Files.toByteArray(file);
+        Ebts expected = EbtsParser.parse(data);
+
+        EbtsParser parser = new EbtsParser();
+        byte[] scratch = data.clone();
+        Ebts first = parser.read(scratch);
+        //The input may be reused once parsed, and fields are still split correctly after later parses
+        Arrays.fill(scratch, (byte) 0);
+        Ebts second = parser.read(ByteBuffer.wrap(data));
+        Ebts third = parser.read(file);
+        assertEquals(expected.getAllRecords(), first.getAllRecords());
+        assertEquals(expected.getAllRecords(), second.getAllRecords());
+        assertEquals(expected.getAllRecords(), third.getAllRecords());
+
+        EbtsParser descriptive = new EbtsParser(ParseSpec.of(ParseType.DESCRIPTIVE_ONLY, Type7Handling.TREAT_AS_TYPE4));
+        for (int i = 0; i < 2; i++) {
+            Ebts ebts = descriptive.read(file);
+            assertEquals(2, ebts.getAllRecords().size());
+            assertEquals(expected.getRecordsByType(2), ebts.getRecordsByType(2));
+        }
+    }
+
+    @Test
+    public void lenientParseTest() throws Exception {
+        File file = new File(ClassLoader.getSystemResource("EFT/sample.eft").toURI());
+        byte[] data = Files.toByteArray(file);
+        Ebts expected = EbtsParser.parse(data);
+        EbtsIndex.Entry type2 = EbtsIndex.build(data).getEntries(2).get(0);
+
+        ParseResult result = EbtsParser.parseLenient(data, ParseSpec.builder().build());
+        assertTrue(result.isComplete());
+        assertEquals(expected.getAllRecords(), result.getEbts().getAllRecords());
+
+        //Break the tag of the second field of the Type-2
+        byte[] corrupt = data.clone();
+        int tag = type2.getOffset();
+        while (corrupt[tag] != EbtsConstants.SEPARATOR_GROUP) {
+            tag++;
+        }
+        int colon = tag + 1;
+        while (corrupt[colon] != ':') {
+            colon++;
+        }
+        corrupt[colon] = 'x';
+
+        try {
+            EbtsParser.parse(corrupt);
+            fail("Expected the corrupt record to fail");
+        } catch (EbtsParsingException e) {
+            //Expected
+        }
+
+        result = EbtsParser.parseLenient(corrupt, ParseSpec.builder().build());
+        assertEquals(1, result.getDiagnostics().size());
+        ParseResult.Diagnostic diagnostic = result.getDiagnostics().get(0);
+        assertEquals(2, diagnostic.getRecordType());
+        assertEquals(tag + 1, diagnostic.getOffset());
+        assertTrue(result.getEbts().getRecordsByType(2).isEmpty());
+        assertEquals(expected.getAllRecords().size() - 1, result.getEbts().getAllRecords().size());
+        assertEquals(expected.getRecordsByType(10), result.getEbts().getRecordsByType(10));
+
+        //Also break its LEN, so that the next FS has to be found
+        int len = type2.getOffset();
+        while (corrupt[len] != ':') {
+            len++;
+        }
+        corrupt[len + 1] = '9';
+
+        result = EbtsParser.parseLenient(corrupt, ParseSpec.builder().build());
+        assertEquals(1, result.getDiagnostics().size());
+        assertEquals(expected.getAllRecords().size() - 1, result.getEbts().getAllRecords().size());
+    }
+
+    @Test
+    public void recordIndexTest() throws Exception {
+        File file = new File(ClassLoader.getSystemResource("EFT/sample.eft").toURI());
+        Ebts ebts = EbtsParser.parse(file);
+
+        LogicalRecord type10 = ebts.getRecordsByType(10).get(0);
+        assertSame(type10, ebts.getRecord(10, type10.getIdc()));
+        assertNull(ebts.getRecord(10, type10.getIdc() + 50));
+        assertNull(ebts.getRecord(1, -1));
+        int maxIdc = Math.max(ebts.getRecordsByType(2).get(0).getIdc(), type10.getIdc());
+        assertEquals(maxIdc, ebts.getMaxIdc());
+
+        //The list returned is a copy, which may be changed without changing the Ebts
+        List<LogicalRecord> records = ebts.getAllRecords();
+        assertNotSame(records, ebts.getAllRecords());
+        ebts.getAllRecords().clear();
+        assertEquals(records, ebts.getAllRecords());
+
+        GenericRecord added = new GenericRecord(10);
+        added.setIdc(maxIdc + 1);
+        ebts.addRecord(added);
+        assertEquals(records.size() + 1, ebts.getAllRecords().size());
+        assertSame(added, ebts.getAllRecords().get(records.size()));
+        assertSame(added, ebts.getRecord(10, maxIdc + 1));
+        assertEquals(maxIdc + 1, ebts.getMaxIdc());
+
+        //A changed IDC is found straight away, and is reflected in the highest IDC
+        added.setIdc(maxIdc + 2);
+        assertSame(added, ebts.getRecord(10, maxIdc + 2));
+        assertEquals(maxIdc + 2, ebts.getMaxIdc());
+        assertNull(ebts.getRecord(10, maxIdc + 1));
+        int type10Idc = type10.getIdc();
+        type10.setIdc(maxIdc + 3);
+        assertEquals(maxIdc + 3, ebts.getMaxIdc());
+        assertSame(type10, ebts.getRecord(10, maxIdc + 3));
+        type10.setIdc(type10Idc);
+        assertSame(type10, ebts.getRecord(10, type10Idc));
+
+        assertTrue(ebts.removeRecord(added));
+        assertEquals(records, ebts.getAllRecords());
+        assertNull(ebts.getRecord(10, maxIdc + 2));
+        assertEquals(maxIdc, ebts.getMaxIdc());
+
+        //An IDC set through the fields is seen too
+        type10.getFields().put(2, new Field(String.format("%02d", maxIdc + 4)));
+        assertSame(type10, ebts.getRecord(10, maxIdc + 4));
+        assertEquals(maxIdc + 4, ebts.getMaxIdc());
+        type10.setIdc(type10Idc);
+
+        //Records may be added and removed through the list of a type, but not through the multimap
+        List<LogicalRecord> type10s = ebts.getRecordsByType(10);
+        type10s.add(added);
+        assertSame(added, ebts.getRecord(10, maxIdc + 2));
+        assertEquals(records.size() + 1, ebts.getAllRecords().size());
+        type10s.remove(added);
+        assertNull(ebts.getRecord(10, maxIdc + 2));
+        assertEquals(records, ebts.getAllRecords());
+        try {
+            ebts.getRecords().put(10, added);
+            fail();
+        } catch (UnsupportedOperationException e) {
+            assertEquals(records, ebts.getAllRecords());
+        }
+    }
+
+    @Test
+    public void freezeTest() throws Exception {
+        File file = new File(ClassLoader.getSystemResource("EFT/sample.eft").toURI());
+        Ebts ebts = EbtsParser.parse(file);
+        Ebts frozen = ebts.freeze();
+
+        assertTrue(frozen.isFrozen());
+        assertFalse(ebts.isFrozen());
+        assertSame(frozen, frozen.freeze());
+        assertEquals(ebts.getAllRecords(), frozen.getAllRecords());
+
+        LogicalRecord type2 = frozen.getRecordsByType(2).get(0);
+        LogicalRecord type10 = frozen.getRecordsByType(10).get(0);
+        assertTrue(type2.isFrozen());
+        try {
+            frozen.addRecord(new GenericRecord(2));
+            fail("Expected the frozen Ebts to reject the record");
+        } catch (UnsupportedOperationException e) {
+            //Expected
+        }
+        try {
+            type2.setField(18, new Field("DOE,JOHN"));
+            fail("Expected the frozen record to reject the field");
+        } catch (UnsupportedOperationException e) {
+            //Expected
+        }
+        try {
+            type2.getField(18).getOccurrences().get(0).getSubFields().get(0).setData("DOE,JOHN");
+            fail("Expected the frozen subfield to reject the data");
+        } catch (UnsupportedOperationException e) {
+            //Expected
+        }
+
+        //Data read from a frozen field cannot change it
+        String name = type2.getField(18).toString();
+        type2.getField(18).getData()[0] = 'X';
+        assertEquals(name, type2.getField(18).toString());
+
+        //An edit shares every untouched record and field
+        Ebts edited = frozen.withField(type2, 18, new Field("DOE,JOHN"));
+        assertTrue(edited.isFrozen());
+        assertEquals("DOE,JOHN", edited.getRecordsByType(2).get(0).getField(18).toString());
+        assertEquals(name, frozen.getRecordsByType(2).get(0).getField(18).toString());
+        assertSame(type2.getField(1), edited.getRecordsByType(2).get(0).getField(1));
+        assertSame(type10, edited.getRecordsByType(10).get(0));
+        assertSame(type10, edited.getRecord(10, type10.getIdc()));
+
+        //A frozen Ebts is built from a copy, leaving it unchanged
+        assertArrayEquals(new EbtsBuilder().build(ebts), new EbtsBuilder().build(frozen));
+        assertEquals(frozen.getAllRecords().size(), edited.thaw().getAllRecords().size());
+    }
+
+    @Test
+    public void imagePayloadStoreTest() throws Exception {
+        File file = new File(ClassLoader.getSystemResource("EFT/sample.eft").toURI());
+        byte[] data = Files.toByteArray(file);
+        Ebts heapEbts = EbtsParser.parse(data);
+        LogicalRecord heapType4 = heapEbts.getRecordsByType(4).get(0);
+
+        Ebts directEbts = EbtsParser.parse(data, ParseSpec.builder().imagePayloadStore(new DirectImagePayloadStore()).build());
+        LogicalRecord directType4 = directEbts.getRecordsByType(4).get(0);
+        assertTrue(directType4.getImageBuffer().isDirect());
+        assertArrayEquals(heapType4.getImageData(), directType4.getImageData());
+        assertNotSame(directType4.getImageData(), directType4.getImageData());
+        assertArrayEquals(heapType4.getImageData(), ByteStreams.toByteArray(directType4.getImageStream()));
+        assertEquals(heapEbts.getAllRecords(), directEbts.getAllRecords());
+
+        FileImagePayloadStore store = new FileImagePayloadStore(null);
+        try {
+            Ebts fileEbts = EbtsParser.parse(data, ParseSpec.builder().imagePayloadStore(store).build());
+            LogicalRecord fileType4 = fileEbts.getRecordsByType(4).get(0);
+            assertArrayEquals(heapType4.getImageData(), fileType4.getImageData());
+            assertArrayEquals(heapType4.getImageData(), ByteStreams.toByteArray(fileType4.getImageStream()));
+            assertTrue(store.getFile().length() >= store.getSize());
+            assertTrue(store.getSize() >= heapType4.getImageData().length);
+        } finally {
+            store.close();
+        }
+        assertFalse(store.getFile().exists());
+    }
+
+    @Test
+    public void fileImagePayloadStoreSegmentTest() throws Exception {
+        FileImagePayloadStore store = new FileImagePayloadStore(null, 64 * 1024);
+        try {
+            //Thousands of images share a handful of mappings rather than having one each
+            int count = 5000;
+            List<ByteBuffer> stored = new ArrayList<ByteBuffer>(count);
+            long size = 0;
+            for (int i = 0; i < count; i++) {
+                byte[] payload = new byte[1 + i % 200];
+                Arrays.fill(payload, (byte) i);
+                stored.add(store.store(ByteBuffer.wrap(payload)));
+                size += payload.length;
+            }
+            for (int i = 0; i < count; i++) {
+                ByteBuffer buffer = stored.get(i);
+                assertTrue(buffer.isReadOnly());
+                assertEquals(1 + i % 200, buffer.remaining());
+                for (int j = buffer.position(); j < buffer.limit(); j++) {
+                    assertEquals((byte) i, buffer.get(j));
+                }
+            }
+            assertEquals(size, store.getSize());
+            assertTrue(store.getMappingCount() <= size / (64 * 1024) + 1);
+
+            //An image larger than a segment is mapped on its own, and the images either side of it are kept
+            byte[] large = new byte[200 * 1024];
+            Arrays.fill(large, (byte) 7);
+            ByteBuffer largeBuffer = store.store(ByteBuffer.wrap(large));
+            ByteBuffer after = store.store(ByteBuffer.wrap(new byte[]{1, 2, 3}));
+            byte[] read = new byte[large.length];
+            largeBuffer.duplicate().get(read);
+            assertArrayEquals(large, read);
+            assertEquals(3, after.get(after.position() + 2));
+            assertEquals((byte) (count - 1), stored.get(count - 1).get(stored.get(count - 1).position()));
+            assertEquals(size + large.length + 3, store.getSize());
+            assertTrue(store.getFile().length() >= store.getSize());
+        } finally {
+            store.close();
+        }
+        assertFalse(store.getFile().exists());
+    }
+
 //    @Test
 //    public void type7ImageBoundsTest() throws Exception {
 //        File file = new File(ClassLoader.getSystemResource("EFT/type7_image_oob.eft").toURI());
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2014 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mitre.jet.ebts;
+
+import com.google.common.io.Files;
+import org.junit.Test;
+import org.mitre.jet.ebts.records.LogicalRecord;
+import org.mitre.jet.exceptions.EbtsParsingException;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * The Class EbtsPushParserTest.
+ */
+public class EbtsPushParserTest {
+
+    private static List<LogicalRecord> feedAll(final EbtsPushParser parser, final byte[] data, final int chunkSize) throws Exception {
+        final List<LogicalRecord> records = new ArrayList<LogicalRecord>();
+        for (int offset = 0; offset < data.length; offset += chunkSize) {
+            final ByteBuffer chunk = ByteBuffer.wrap(data, offset, Math.min(chunkSize, data.length - offset));
+            records.addAll(parser.feed(chunk));
+        }
+        parser.finish();
+        return records;
+    }
+
+    @Test
+    public void pushTest() throws Exception {
+        for (String resource : new String[]{"EFT/sample.eft", "EFT/S001-01-t10_01.eft", "EFT/empty_image.eft"}) {
+            File file = new File(ClassLoader.getSystemResource(resource).toURI());
+            byte[] data = Files.toByteArray(file);
+            Ebts ebts = EbtsParser.parse(data);
+            int[] recordTypes = EbtsParser.getRecordTypes(ebts.getRecordsByType(1).get(0));
+
+            for (int chunkSize : new int[]{1, 7, 4096, data.length}) {
+                EbtsPushParser parser = new EbtsPushParser();
+                List<LogicalRecord> records = feedAll(parser, data, chunkSize);
+
+                assertTrue(parser.isComplete());
+                assertEquals(recordTypes.length, records.size());
+                for (int i = 0; i < recordTypes.length; i++) {
+                    assertEquals(recordTypes[i], records.get(i).getRecordType());
+                }
+                assertEquals(ebts.getAllRecords(), EbtsReaderTest.sorted(records));
+            }
+        }
+    }
+
+    @Test
+    public void skipTest() throws Exception {
+        File file = new File(ClassLoader.getSystemResource("EFT/sample.eft").toURI());
+        byte[] data = Files.toByteArray(file);
+        Ebts ebts = EbtsParser.parse(data);
+
+        EbtsPushParser parser = new EbtsPushParser(ParseSpec.builder().excludeRecordTypes(4).build());
+        List<LogicalRecord> records = feedAll(parser, data, 1000);
+
+        assertEquals(3, records.size());
+        assertEquals(ebts.getRecordsByType(10).get(0), records.get(2));
+    }
+
+    @Test
+    public void recordLengthTest() throws Exception {
+        //A LEN field far longer than the data is reported as truncated rather than allocated up front
+        byte[] data = "1.001:999999999\u001D1.002:0502\u001D".getBytes("US-ASCII");
+        EbtsPushParser parser = new EbtsPushParser();
+        assertTrue(parser.feed(ByteBuffer.wrap(data)).isEmpty());
+        try {
+            parser.finish();
+            fail();
+        } catch (EbtsParsingException e) {
+            assertTrue(e.getMessage().contains("Unexpected end of data"));
+        }
+
+        try {
+            new EbtsPushParser(ParseSpec.builder().maxRecordLength(1024 * 1024).build()).feed(ByteBuffer.wrap(data));
+            fail();
+        } catch (EbtsParsingException e) {
+            assertTrue(e.getMessage().contains("exceeds the maximum"));
+        }
+    }
+
+    @Test(expected = EbtsParsingException.class)
+    public void truncatedTest() throws Exception {
+        File file = new File(ClassLoader.getSystemResource("EFT/S001-01-t10_01.eft").toURI());
+        byte[] data = Files.toByteArray(file);
+
+        EbtsPushParser parser = new EbtsPushParser();
+        try {
+            feedAll(parser, Arrays.copyOf(data, data.length - 100), 512);
+        } finally {
+            assertFalse(parser.isComplete());
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2014 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mitre.jet.ebts;
+
+import com.google.common.io.Files;
+import org.junit.Test;
+import org.mitre.jet.ebts.records.LogicalRecord;
+import org.mitre.jet.exceptions.EbtsParsingException;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * The Class EbtsReaderTest.
+ */
+public class EbtsReaderTest {
+
+    private static List<LogicalRecord> readAll(final EbtsReader reader) throws Exception {
+        final List<LogicalRecord> records = new ArrayList<LogicalRecord>();
+        try {
+            while (reader.hasNext()) {
+                records.add(reader.next());
+            }
+        } finally {
+            reader.close();
+        }
+        return records;
+    }
+
+    @Test
+    public void readerTest() throws Exception {
+        for (String resource : new String[]{"EFT/sample.eft", "EFT/S001-01-t10_01.eft", "EFT/empty_image.eft"}) {
+            File file = new File(ClassLoader.getSystemResource(resource).toURI());
+
+            Ebts ebts = EbtsParser.parse(file);
+            int[] recordTypes = EbtsParser.getRecordTypes(ebts.getRecordsByType(1).get(0));
+
+            List<LogicalRecord> records = readAll(new EbtsReader(new FileInputStream(file)));
+            assertEquals(recordTypes.length, records.size());
+            for (int i = 0; i < recordTypes.length; i++) {
+                assertEquals(recordTypes[i], records.get(i).getRecordType());
+            }
+            assertEquals(ebts.getAllRecords(), sorted(records));
+        }
+    }
+
+    @Test(expected = EbtsParsingException.class)
+    public void truncatedTest() throws Exception {
+        File file = new File(ClassLoader.getSystemResource("EFT/S001-01-t10_01.eft").toURI());
+        byte[] data = Files.toByteArray(file);
+
+        EbtsReader reader = new EbtsReader(new ByteArrayInputStream(Arrays.copyOf(data, data.length - 100)));
+        readAll(reader);
+    }
+
+    @Test
+    public void exhaustedTest() throws Exception {
+        File file = new File(ClassLoader.getSystemResource("EFT/S001-01-t10_01.eft").toURI());
+        EbtsReader reader = new EbtsReader(new FileInputStream(file));
+        readAll(reader);
+        assertFalse(reader.hasNext());
+    }
+
+    @Test
+    public void recordLengthTest() throws Exception {
+        //A LEN field far longer than the data is reported as truncated rather than allocated up front
+        byte[] data = "1.001:999999999\u001D1.002:0502\u001D".getBytes("US-ASCII");
+        try {
+            readAll(new EbtsReader(new ByteArrayInputStream(data)));
+            fail();
+        } catch (EbtsParsingException e) {
+            assertTrue(e.getMessage().contains("Unexpected end of data"));
+        }
+
+        try {
+            readAll(new EbtsReader(Channels.newChannel(new ByteArrayInputStream(data)), Type7Handling.TREAT_AS_TYPE4, 1024 * 1024));
+            fail();
+        } catch (EbtsParsingException e) {
+            assertTrue(e.getMessage().contains("exceeds the maximum"));
+        }
+
+        File file = new File(ClassLoader.getSystemResource("EFT/sample.eft").toURI());
+        assertEquals(EbtsParser.parse(file).getAllRecords(),
+                sorted(readAll(new EbtsReader(new FileInputStream(file).getChannel(), Type7Handling.TREAT_AS_TYPE4, (int) file.length()))));
+    }
+
+    static List<LogicalRecord> sorted(final List<LogicalRecord> records) {
+        final Ebts ebts = new Ebts();
+        for (LogicalRecord record : records) {
+            ebts.addRecord(record);
+        }
+        return ebts.getAllRecords();
+    }
+}
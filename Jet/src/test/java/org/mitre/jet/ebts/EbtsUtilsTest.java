@@ -16,15 +16,19 @@
 
 package org.mitre.jet.ebts;
 
+import com.google.common.io.Files;
 import org.junit.Test;
 import org.mitre.jet.ebts.field.Occurrence;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 public class EbtsUtilsTest {
     private static final Logger log = LoggerFactory.getLogger(EbtsUtilsTest.class);
@@ -76,4 +80,41 @@ public class EbtsUtilsTest {
         System.out.println((int)((0xF0 & 0xFF) << 8 | (0x01 & 0xFF)));
         System.out.println((int)((0x01 & 0xFF) | (0xF0 & 0xFF) << 8));
     }
+
+    @Test
+    public void testMimeExtension() throws Exception {
+
+        assertEquals(".wsq", EbtsUtils.getMimeExtension(resource("a001.wsq")));
+        assertEquals(".png", EbtsUtils.getMimeExtension(resource("sample.png")));
+        assertEquals(".bmp", EbtsUtils.getMimeExtension(resource("sample.bmp")));
+        for (String bmp : new String[]{"sample.bmp", "sample-gray.bmp", "sample-gray-500.bmp", "image_not_provided.bmp"}) {
+            assertEquals(ImageFormat.BMP, ImageFormat.detect(ByteBuffer.wrap(resource(bmp))));
+        }
+
+        //Data that merely starts with "BM" is not a bitmap
+        byte[] notBmp = resource("sample.bmp");
+        notBmp[6] = 1;
+        assertNull(ImageFormat.detect(ByteBuffer.wrap(notBmp)));
+        notBmp = resource("sample.bmp");
+        notBmp[14] = 99;
+        assertNull(ImageFormat.detect(ByteBuffer.wrap(notBmp)));
+        assertNull(ImageFormat.detect(ByteBuffer.wrap("BMW pixel data......".getBytes("US-ASCII"))));
+
+        //Detection starts at the buffer's position and does not move it
+        ByteBuffer bb = ByteBuffer.allocate(20);
+        bb.put(new byte[]{1, 2, 3, (byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0});
+        bb.position(3);
+        assertEquals(ImageFormat.JPEG, ImageFormat.detect(bb));
+        assertEquals(3, bb.position());
+        assertEquals(3, ImageFormat.JPEG.find((ByteBuffer) bb.duplicate().position(0)));
+        assertEquals(3, ImageUtils.getJpgImagePosition((ByteBuffer) bb.duplicate().position(0)));
+
+        bb.position(0);
+        assertNull(ImageFormat.detect(bb));
+        assertEquals(-1, ImageUtils.getPngImagePosition(bb));
+    }
+
+    private static byte[] resource(final String name) throws Exception {
+        return Files.toByteArray(new File(ClassLoader.getSystemResource(name).toURI()));
+    }
 }
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2014 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mitre.jet.ebts;
+
+import org.junit.Test;
+import org.mitre.jet.ebts.field.Field;
+import org.mitre.jet.ebts.field.SeparatorIndex;
+import org.mitre.jet.ebts.field.SubField;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The Class FieldTest.
+ */
+public class FieldTest {
+
+    private static final byte[] DATA = ("1" + (char) EbtsConstants.SEPARATOR_UNIT + "02"
+            + (char) EbtsConstants.SEPARATOR_RECORD + "2" + (char) EbtsConstants.SEPARATOR_UNIT + "00"
+            + (char) EbtsConstants.SEPARATOR_RECORD).getBytes();
+
+    @Test
+    public void lazyFieldTest() throws Exception {
+
+        Field lazy = new Field(DATA, ParseContents.LAZY);
+        Field eager = new Field(DATA, ParseContents.TRUE);
+
+        //Serialized form is available without parsing
+        assertArrayEquals(DATA, lazy.getData());
+
+        assertEquals(3, lazy.getOccurrences().size());
+        assertEquals("02", lazy.getOccurrences().get(0).getSubFields().get(1).toString());
+        assertEquals(0, lazy.getOccurrences().get(2).getSubFields().size());
+        assertEquals(eager, lazy);
+        assertEquals(eager.hashCode(), lazy.hashCode());
+        assertArrayEquals(DATA, lazy.getData());
+    }
+
+    @Test
+    public void lazyFieldToStringTest() throws Exception {
+
+        Field lazy = new Field(DATA, ParseContents.LAZY);
+        assertEquals("1,02;2,00;", lazy.toString(";", ","));
+
+        lazy.setData("X".getBytes());
+        assertEquals("X", lazy.toString());
+    }
+
+    @Test
+    public void separatorTest() throws Exception {
+        final char rs = (char) EbtsConstants.SEPARATOR_RECORD;
+        final char us = (char) EbtsConstants.SEPARATOR_UNIT;
+        final char gs = (char) EbtsConstants.SEPARATOR_GROUP;
+
+        Field field = new Field(("a" + us + rs + rs + us + "b" + gs + "c" + us).getBytes(), ParseContents.TRUE);
+
+        assertEquals(3, field.getOccurrences().size());
+        assertEquals(2, field.getOccurrences().get(0).getSubFields().size());
+        assertEquals("", field.getOccurrences().get(0).getSubFields().get(1).toString());
+        assertEquals(0, field.getOccurrences().get(1).getSubFields().size());
+        assertEquals(3, field.getOccurrences().get(2).getSubFields().size());
+        //Other separators are kept as data
+        assertEquals("b" + gs + "c", field.getOccurrences().get(2).getSubFields().get(1).toString());
+        assertEquals("", field.getOccurrences().get(2).getSubFields().get(2).toString());
+    }
+
+    @Test
+    public void indexedFieldTest() throws Exception {
+
+        //The field is read from the middle of a record whose separators have been indexed
+        final byte[] record = new byte[DATA.length + 10];
+        System.arraycopy(DATA, 0, record, 7, DATA.length);
+        record[3] = EbtsConstants.SEPARATOR_GROUP;
+        final SeparatorIndex index = new SeparatorIndex(ByteBuffer.wrap(record));
+        assertEquals(3, index.next(0, record.length));
+
+        final ByteBuffer data = ByteBuffer.wrap(record, 7, DATA.length);
+        final Field indexed = new Field(data, index, 7);
+        index.detach();
+
+        assertEquals(new Field(DATA, ParseContents.TRUE), indexed);
+        assertEquals(3, indexed.getOccurrences().size());
+        assertEquals("02", indexed.getOccurrences().get(0).getSubFields().get(1).toString());
+    }
+
+    @Test
+    public void sharedSubFieldTest() throws Exception {
+
+        //The subfields of a lazily parsed field refer to the field's data until they are changed
+        final byte[] record = DATA.clone();
+        final Field field = new Field(ByteBuffer.wrap(record), ParseContents.LAZY);
+        final SubField first = field.getOccurrences().get(0).getSubFields().get(0);
+        final SubField second = field.getOccurrences().get(0).getSubFields().get(1);
+        assertEquals("1", first.toString());
+        assertEquals("02", second.toString());
+        assertEquals(2, second.getLength());
+        assertTrue(second.getBuffer().isReadOnly());
+
+        //Changing one subfield's data leaves the others, and the field's data, alone
+        first.getData()[0] = '9';
+        second.setData("X");
+        assertEquals("9", first.toString());
+        assertEquals("X", second.toString());
+        assertArrayEquals(DATA, record);
+        assertEquals(new SubField("2"), field.getOccurrences().get(1).getSubFields().get(0));
+        assertEquals(new SubField("2").hashCode(), field.getOccurrences().get(1).getSubFields().get(0).hashCode());
+    }
+
+    @Test
+    public void dataTest() throws Exception {
+
+        final Field field = new Field(DATA, ParseContents.TRUE);
+        assertEquals(DATA.length, field.getDataLength());
+        assertArrayEquals(DATA, field.getData());
+        assertEquals(4, field.getOccurrences().get(0).getDataLength());
+
+        //Each call returns a new array, so changing it leaves the field alone
+        final byte[] data = field.getData();
+        assertNotSame(data, field.getData());
+        data[0] = 'X';
+        assertArrayEquals(DATA, field.getData());
+
+        //Changes made through a subfield obtained earlier are picked up
+        final SubField subField = field.getOccurrences().get(0).getSubFields().get(0);
+        subField.setData("9");
+        assertEquals('9', field.getData()[0]);
+        assertEquals('9', field.getOccurrences().get(0).getData()[0]);
+        subField.setData("1");
+
+        //Changes made through the occurrences are picked up
+        field.getOccurrences().get(2).getSubFields().add(new SubField("4"));
+        final byte[] expected = (new String(DATA, "UTF-8") + "4").getBytes("UTF-8");
+        assertEquals(expected.length, field.getDataLength());
+        assertArrayEquals(expected, field.getData());
+
+        field.setData("5".getBytes("UTF-8"));
+        assertEquals(1, field.getDataLength());
+        assertEquals("5", new String(field.getData(), "UTF-8"));
+
+        assertEquals(0, new Field().getDataLength());
+        assertEquals(DATA.length, new Field(DATA, ParseContents.LAZY).getDataLength());
+    }
+
+    @Test
+    public void writeToTest() throws Exception {
+
+        final Field field = new Field(DATA, ParseContents.TRUE);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        field.writeTo(out);
+        assertArrayEquals(DATA, out.toByteArray());
+
+        //Replacing a subfield, or changing one in place, after the field has been written is picked up
+        field.getOccurrences().get(1).getSubFields().set(0, new SubField("7"));
+        out = new ByteArrayOutputStream();
+        field.writeTo(out);
+        assertArrayEquals(field.getData(), out.toByteArray());
+        assertEquals('7', out.toByteArray()[5]);
+
+        field.getOccurrences().get(1).getSubFields().get(0).setData("8");
+        out = new ByteArrayOutputStream();
+        field.writeTo(out);
+        assertEquals('8', out.toByteArray()[5]);
+        assertEquals('8', field.getData()[5]);
+
+        //Lazily parsed and frozen fields are written as they are held
+        out = new ByteArrayOutputStream();
+        new Field(ByteBuffer.wrap(DATA), ParseContents.LAZY).writeTo(out);
+        assertArrayEquals(DATA, out.toByteArray());
+
+        final Field frozen = new Field(DATA, ParseContents.TRUE);
+        frozen.freeze();
+        out = new ByteArrayOutputStream();
+        frozen.writeTo(out);
+        assertArrayEquals(DATA, out.toByteArray());
+    }
+}
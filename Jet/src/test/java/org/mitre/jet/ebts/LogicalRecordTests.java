@@ -17,13 +17,22 @@
 package org.mitre.jet.ebts;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
 
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
 
 import com.google.common.collect.Lists;
 
 import org.junit.Test;
+import org.mitre.jet.ebts.field.Field;
 import org.mitre.jet.ebts.records.BinaryHeaderImageRecord;
+import org.mitre.jet.ebts.records.FieldMap;
 import org.mitre.jet.ebts.records.GenericRecord;
 import org.mitre.jet.ebts.records.LogicalRecord;
 
@@ -53,4 +62,67 @@ public class LogicalRecordTests {
             assertEquals(0,record.getImageData().length);
         }
     }
+
+    @Test
+    public void unfreezableSubclassTest() throws Exception {
+
+        //A subclass written before records could be frozen only fails if it is frozen
+        LogicalRecord record = new LogicalRecord(2) {
+            @Override
+            public int getLength() {
+                return 0;
+            }
+        };
+        record.setField(3, new Field("A"));
+        assertFalse(record.isFrozen());
+        try {
+            record.freeze();
+            fail();
+        } catch (UnsupportedOperationException e) {
+            assertFalse(record.isFrozen());
+        }
+    }
+
+    @Test
+    public void fieldOrderTest() throws Exception {
+
+        //The fields must iterate in field number order however they are added
+        Map<Integer, Field> expected = new TreeMap<Integer, Field>();
+        LogicalRecord record = new GenericRecord(2);
+        Random random = new Random(2);
+        for (int i = 0; i < 500; i++) {
+            int fieldNumber = random.nextInt(1000) + 1;
+            Field field = new Field(String.valueOf(i));
+            expected.put(fieldNumber, field);
+            record.setField(fieldNumber, field);
+        }
+
+        assertEquals(expected, record.getFields());
+        assertEquals(record.getFields(), expected);
+        assertEquals(expected.hashCode(), record.getFields().hashCode());
+        assertEquals(Lists.newArrayList(expected.keySet()), Lists.newArrayList(record.getFields().keySet()));
+        for (Integer fieldNumber : expected.keySet()) {
+            assertEquals(expected.get(fieldNumber), record.getField(fieldNumber));
+        }
+        assertNull(record.getField(1001));
+
+        //Removing through the iterator keeps the rest in order
+        Iterator<Integer> iterator = record.getFields().keySet().iterator();
+        Iterator<Integer> expectedIterator = expected.keySet().iterator();
+        while (iterator.hasNext()) {
+            int fieldNumber = iterator.next();
+            expectedIterator.next();
+            if (fieldNumber % 3 == 0) {
+                iterator.remove();
+                expectedIterator.remove();
+            }
+        }
+        assertEquals(expected, record.getFields());
+        assertFalse(record.hasField(3));
+
+        FieldMap fields = new FieldMap();
+        fields.put(7, new Field("7"));
+        assertEquals("7", fields.remove(7).toString());
+        assertEquals(0, fields.size());
+    }
 }
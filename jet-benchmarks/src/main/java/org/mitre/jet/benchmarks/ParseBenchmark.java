@@ -0,0 +1,67 @@
+/*
+ * Copyright 2014 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mitre.jet.benchmarks;
+
+import org.mitre.jet.ebts.Ebts;
+import org.mitre.jet.ebts.EbtsParser;
+import org.mitre.jet.ebts.ParseType;
+import org.mitre.jet.ebts.Type7Handling;
+import org.mitre.jet.exceptions.EbtsParsingException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses each sample transaction in full and descriptive only.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+
+    @Param({"EFT/sample.eft", "EFT/S001-01-t10_01.eft"})
+    public String file;
+
+    @Param({"FULL", "DESCRIPTIVE_ONLY"})
+    public ParseType parseType;
+
+    private byte[] data;
+
+    @Setup
+    public void setup() throws IOException {
+        data = Samples.load(file);
+    }
+
+    @Benchmark
+    public Ebts parse() throws EbtsParsingException {
+        return EbtsParser.parse(data, parseType, Type7Handling.TREAT_AS_TYPE4);
+    }
+}
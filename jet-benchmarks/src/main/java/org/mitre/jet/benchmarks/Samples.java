@@ -0,0 +1,33 @@
+/*
+ * Copyright 2014 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mitre.jet.benchmarks;
+
+import com.google.common.io.Resources;
+
+import java.io.IOException;
+
+/**
+ * Loads the sample files shared with the Jet unit tests.
+ */
+final class Samples {
+
+    private Samples() {}
+
+    static byte[] load(final String name) throws IOException {
+        return Resources.toByteArray(Resources.getResource(name));
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2014 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mitre.jet.benchmarks;
+
+import org.jnbis.Bitmap;
+import org.jnbis.BitmapWithMetadata;
+import org.jnbis.WSQDecoder;
+import org.jnbis.WSQEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decodes a001.wsq and encodes the matching raw image (1508x1008, 500 ppi, 8 bit) at 0.75 bits per pixel.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WsqBenchmark {
+
+    private byte[] wsq;
+    private Bitmap raw;
+
+    @Setup
+    public void setup() throws IOException {
+        wsq = Samples.load("a001.wsq");
+        raw = new Bitmap(Samples.load("a001.raw"), 1508, 1008, 500, 8, -1);
+    }
+
+    @Benchmark
+    public BitmapWithMetadata decode() throws IOException {
+        return WSQDecoder.decode(new ByteArrayInputStream(wsq));
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream(wsq.length);
+        WSQEncoder.encode(baos, raw, 0.75);
+        return baos.toByteArray();
+    }
+}